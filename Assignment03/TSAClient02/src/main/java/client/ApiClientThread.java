@@ -6,6 +6,9 @@ import io.swagger.client.model.*;
 import statistic.StatisticsRunnable;
 
 import java.io.BufferedWriter;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
@@ -13,7 +16,10 @@ import java.util.concurrent.*;
  */
 public class ApiClientThread extends Thread {
 
+    private static final int MAX_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 100;
     private final BlockingQueue<String> workQueue;
+    private final ApiClient apiClient;
     private final TextbodyApi apiInstance;
     private final String function;
     private final CyclicBarrier synk;
@@ -21,6 +27,9 @@ public class ApiClientThread extends Thread {
     private final String end;
     private final ThreadPoolExecutor pool;
     private final BufferedWriter writer;
+    private final int batchSize;
+    // the nanos this thread slept backing off during the current request
+    private long backOffNanos;
 
     /**
      * Initialize a client thread with a reader which will be accessed
@@ -30,10 +39,12 @@ public class ApiClientThread extends Thread {
      * @param function the function name to process the line of text.
      * @param barrier the cyclic barrier to make threads coordinated.
      * @param counter the counter to count the number of requests.
+     * @param batchSize the number of lines sent per request, 1 means one line per request.
      */
     public ApiClientThread(
             BlockingQueue<String> workQueue, String basePath, String function,
-            CyclicBarrier barrier, RequestsCount counter, String end, ThreadPoolExecutor pool, BufferedWriter writer) {
+            CyclicBarrier barrier, RequestsCount counter, String end, ThreadPoolExecutor pool, BufferedWriter writer,
+            int batchSize) {
         if (workQueue == null
                 || basePath == null
                 || function == null
@@ -41,20 +52,41 @@ public class ApiClientThread extends Thread {
                 || counter == null
                 || end == null
                 || pool == null
-                || writer == null) {
+                || writer == null
+                || batchSize <= 0) {
             throw new IllegalArgumentException("invalid thread parameters");
         }
         this.workQueue = workQueue;
-        this.apiInstance = new TextbodyApi(new ApiClient().setBasePath(basePath));
+        this.apiClient = new ApiClient().setBasePath(basePath);
+        this.apiInstance = new TextbodyApi(apiClient);
         this.function = function;
         this.synk = barrier;
         this.counter = counter;
         this.end = end;
         this.pool = pool;
         this.writer = writer;
+        this.batchSize = batchSize;
     }
 
     public void run() {
+        if (batchSize > 1) {
+            runBatch();
+        } else {
+            runSingle();
+        }
+
+        // wait for other thread to complete
+        try {
+            synk.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send one line of text per request.
+     */
+    private void runSingle() {
         // continuously read line from reader and sending http request
         TextLine body = new TextLine();
         String line = "";
@@ -75,25 +107,134 @@ public class ApiClientThread extends Thread {
             // take a timestamp before sending a request
             int responseCode = 200;
             long start = System.nanoTime();
+            backOffNanos = 0;
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    apiInstance.analyzeNewLine(body.message(line), function);
+                    counter.markSucc();
+                    responseCode = 200;
+                    // System.out.println(result);
+                } catch (ApiException e) {
+                    responseCode = e.getCode();
+                    if (backOff(e, attempt)) {
+                        continue;
+                    }
+                    counter.markFail();
+                    System.err.println(String.format("errCode : %d, %s", e.getCode(), e.getMessage()));
+                    e.printStackTrace();
+                }
+                break;
+            }
+            // the backoff sleeps are the client waiting, not the server responding
+            long latency = System.nanoTime() - start - backOffNanos;
+            counter.markLines(1);
+            pool.execute(new StatisticsRunnable(writer, new String[]{"" + start, "POST", "" + latency, "" + responseCode}));
+        }
+    }
+
+    /**
+     * Collect up to batchSize lines of text and send them in one request to the batch endpoint.
+     */
+    private void runBatch() {
+        List<TextLine> batch = new ArrayList<>(batchSize);
+        String line = "";
+        while (true) {
+            try {
+                line = workQueue.take();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            // reach the end of the file, send the rest and wait other threads to complete
+            if (line == end) {
+                break;
+            }
+            // check if it is an empty line
+            if (line.length() == 0) {
+                continue;
+            }
+            batch.add(new TextLine().message(line));
+            if (batch.size() == batchSize) {
+                sendBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            sendBatch(batch);
+        }
+    }
+
+    /**
+     * Post a batch of text lines as a json array.
+     * @param batch the lines of text
+     */
+    private void sendBatch(List<TextLine> batch) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Accept", "application/json");
+        Type returnType = BigDecimal.class;
+
+        // take a timestamp before sending a request
+        int responseCode = 200;
+        long start = System.nanoTime();
+        backOffNanos = 0;
+        for (int attempt = 0; ; attempt++) {
             try {
-                apiInstance.analyzeNewLine(body.message(line), function);
+                apiClient.execute(apiClient.buildCall("/textbody/" + function + "/batch", "POST",
+                        new ArrayList<>(), new ArrayList<>(), batch, headers, new HashMap<>(), new String[0], null),
+                        returnType);
                 counter.markSucc();
-                // System.out.println(result);
+                responseCode = 200;
             } catch (ApiException e) {
+                responseCode = e.getCode();
+                if (backOff(e, attempt)) {
+                    continue;
+                }
                 counter.markFail();
                 System.err.println(String.format("errCode : %d, %s", e.getCode(), e.getMessage()));
-                e.printStackTrace();
-                responseCode = e.getCode();
             }
-            long latency = System.nanoTime() - start;
-            pool.execute(new StatisticsRunnable(writer, new String[]{"" + start, "POST", "" + latency, "" + responseCode}));
+            break;
         }
+        // the backoff sleeps are the client waiting, not the server responding
+        long latency = System.nanoTime() - start - backOffNanos;
+        counter.markLines(batch.size());
+        pool.execute(new StatisticsRunnable(writer,
+                new String[]{"" + start, "POST", "" + latency, "" + responseCode, "" + batch.size()}));
+    }
 
-        // wait for other thread to complete
+    /**
+     * Wait before retrying a request the server has shed. The delay is taken from the Retry-After header
+     * when the server provides it, otherwise it grows exponentially with the attempt. The time slept is left out
+     * of the latency recorded for the request.
+     * @param e the failure of the request
+     * @param attempt the number of retries done so far
+     * @return true if the request should be sent again
+     */
+    private boolean backOff(ApiException e, int attempt) {
+        if ((e.getCode() != 503 && e.getCode() != 429) || attempt >= MAX_RETRIES) {
+            return false;
+        }
+        long delay = BASE_BACKOFF_MILLIS << attempt;
+        Map<String, List<String>> responseHeaders = e.getResponseHeaders();
+        if (responseHeaders != null) {
+            for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+                if ("Retry-After".equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+                    try {
+                        delay = Long.parseLong(entry.getValue().get(0).trim()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                        // an http-date is not used by our server, keep the exponential delay
+                    }
+                }
+            }
+        }
+        long sleepStart = System.nanoTime();
         try {
-            synk.await();
-        } catch (InterruptedException | BrokenBarrierException e) {
-            e.printStackTrace();
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            backOffNanos += System.nanoTime() - sleepStart;
         }
+        return true;
     }
 }
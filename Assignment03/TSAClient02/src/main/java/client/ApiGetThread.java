@@ -1,14 +1,21 @@
 package client;
 
+import com.google.gson.reflect.TypeToken;
 import io.swagger.client.ApiClient;
 import io.swagger.client.ApiException;
+import io.swagger.client.Pair;
 import io.swagger.client.api.TextbodyApi;
 import io.swagger.client.model.TextLine;
 import model.Signal;
 import statistic.StatisticsRunnable;
 
 import java.io.BufferedWriter;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
@@ -19,6 +26,7 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 public class ApiGetThread extends Thread {
 
+    private final ApiClient apiClient;
     private final TextbodyApi apiInstance;
     private final String function;
     private final CyclicBarrier synk;
@@ -26,6 +34,7 @@ public class ApiGetThread extends Thread {
     private final Signal sign;
     private final ThreadPoolExecutor pool;
     private final BufferedWriter writer;
+    private final boolean multiGet;
     private final String[] wordList = new String[]{"balancer", "guojun", "response", "partition", "distributed", "system", "internet",
     "database", "scalable", "lock"};
 
@@ -37,9 +46,11 @@ public class ApiGetThread extends Thread {
      * @param barrier the cyclic barrier to make threads coordinated.
      * @param sign the sign to notify this thread to stop
      * @param counter the counter to count the number of requests.
+     * @param multiGet true to query all words in one request instead of one request per word.
      */
     public ApiGetThread(String basePath, String function, CyclicBarrier barrier,
-                        RequestsCount counter, Signal sign, ThreadPoolExecutor pool, BufferedWriter writer) {
+                        RequestsCount counter, Signal sign, ThreadPoolExecutor pool, BufferedWriter writer,
+                        boolean multiGet) {
         if (     basePath == null
                 || function == null
                 || barrier == null
@@ -48,13 +59,15 @@ public class ApiGetThread extends Thread {
                 || writer == null) {
             throw new IllegalArgumentException("invalid thread parameters");
         }
-        this.apiInstance = new TextbodyApi(new ApiClient().setBasePath(basePath));
+        this.apiClient = new ApiClient().setBasePath(basePath);
+        this.apiInstance = new TextbodyApi(apiClient);
         this.function = function;
         this.synk = barrier;
         this.counter = counter;
         this.sign = sign;
         this.pool = pool;
         this.writer = writer;
+        this.multiGet = multiGet;
     }
 
     public void run() {
@@ -68,6 +81,10 @@ public class ApiGetThread extends Thread {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            if (multiGet) {
+                getWordCounts();
+                continue;
+            }
             for (String word : wordList) {
                 // take a timestamp before sending a request
                 int responseCode = 200;
@@ -92,4 +109,29 @@ public class ApiGetThread extends Thread {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Query the counts of all words in one request.
+     */
+    private void getWordCounts() {
+        List<Pair> queryParams = new ArrayList<>();
+        queryParams.add(new Pair("words", String.join(",", wordList)));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        Type returnType = new TypeToken<Map<String, BigDecimal>>() {}.getType();
+
+        // take a timestamp before sending a request
+        int responseCode = 200;
+        long start = System.nanoTime();
+        try {
+            apiClient.execute(apiClient.buildCall("/textbody/" + function, "GET", queryParams, new ArrayList<>(),
+                    null, headers, new HashMap<>(), new String[0], null), returnType);
+            counter.markSucc();
+        } catch (ApiException e) {
+            counter.markFail();
+            responseCode = e.getCode();
+        }
+        long latency = System.nanoTime() - start;
+        pool.execute(new StatisticsRunnable(writer, new String[]{"" + start, "GET", "" + latency, "" + responseCode}));
+    }
 }
@@ -14,6 +14,8 @@ public class ClientMultiThreaded {
 
     private static String input;
     private static int maxThreads;
+    private static int batchSize = 1;
+    private static boolean multiGet = false;
     private static String localPath = "http://localhost:8080/TextProcessor";
     private static String basePath = "http://54.91.96.97:8080/TextProcessor";
     private static String lbs = "http://lbs-588037931.us-east-1.elb.amazonaws.com:8080/TextProcessor";
@@ -23,8 +25,10 @@ public class ClientMultiThreaded {
 
     /**
      * This main method takes two parameters: one is the path of text input file the other is the MAX_Threads
-     * used to process the text.
-     * @param args the input file and max_threads
+     * used to process the text. An optional third parameter is the number of lines sent per request, which
+     * switches the clients to the batch endpoint when it is greater than 1. An optional fourth parameter, true
+     * or false, makes the GET thread query all its words in one request, it is false by default.
+     * @param args the input file, max_threads, optional batch size and optional multi-word GET flag
      */
     public static void main(String[] args) throws IOException, InterruptedException, BrokenBarrierException {
         checkArgs(args);
@@ -74,10 +78,11 @@ public class ClientMultiThreaded {
         long start = System.currentTimeMillis();
         for (int i = 0; i < maxThreads; i++) {
 
-            new ApiClientThread(workQueues[i / 8], basePath, function, barrier, counter, end, pool1, writer).start();
+            new ApiClientThread(
+                    workQueues[i / 8], basePath, function, barrier, counter, end, pool1, writer, batchSize).start();
         }
 
-        new ApiGetThread(basePath, function, synk, getCounter, sign, pool2, getWriter).start();
+        new ApiGetThread(basePath, function, synk, getCounter, sign, pool2, getWriter, multiGet).start();
 
         // wait for threads to complete
         barrier.await();
@@ -116,14 +121,16 @@ public class ClientMultiThreaded {
         String getStatistics = analyze(getCsvPath);
 
         System.out.println(String.format("All %d threads processing completed!", maxThreads));
+        System.out.println(String.format("Lines per request: %d", batchSize));
         System.out.println("-----------------------------------------------------");
         System.out.println("------------------------STATS------------------------");
         System.out.println(String.format("Total number of successful requests: %d", counter.getSuccCount()));
         System.out.println(String.format("Total number of unsuccessful requests: %d", counter.getFailCount()));
         System.out.println(statistics);
         System.out.println(String.format("Total wall time: %d ms", wallTime));
-        System.out.println(String.format("Throughput: %.2f",
-                1000 * (counter.getSuccCount() + counter.getFailCount()) * 1D / wallTime));
+        System.out.println(String.format("Throughput: %.2f requests/s, %.2f lines/s",
+                1000 * (counter.getSuccCount() + counter.getFailCount()) * 1D / wallTime,
+                1000 * counter.getLineCount() * 1D / wallTime));
         System.out.println("-----------------------------------------------------");
         System.out.println("GET requests results");
         System.out.println(String.format("Total number of successful requests: %d", getCounter.getSuccCount()));
@@ -173,7 +180,7 @@ public class ClientMultiThreaded {
     private static void checkArgs(String args[]) {
         Objects.requireNonNull(args);
         // validate and initialize the parameters
-        if (args.length != 2) {
+        if (args.length < 2 || args.length > 4) {
             throw new IllegalArgumentException("wrong arguments number");
         } else {
             input = args[0];
@@ -193,6 +200,24 @@ public class ClientMultiThreaded {
             } catch (NumberFormatException e) {
                 throw new IllegalArgumentException("must input a valid integer for max threads number");
             }
+
+            if (args.length >= 3) {
+                try {
+                    batchSize = Integer.parseInt(args[2]);
+                    if (batchSize <= 0) {
+                        throw new IllegalArgumentException("batch size must be positive");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("must input a valid integer for batch size");
+                }
+            }
+
+            if (args.length == 4) {
+                if (!args[3].equalsIgnoreCase("true") && !args[3].equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("the multi-word GET flag must be true or false");
+                }
+                multiGet = Boolean.parseBoolean(args[3]);
+            }
         }
     }
 }
@@ -7,8 +7,10 @@ public class RequestsCount {
 
     private final Object lock1 = new Object();
     private final Object lock2 = new Object();
+    private final Object lock3 = new Object();
     private int succCount = 0;
     private int failCount = 0;
+    private long lineCount = 0;
 
     /**
      * Add one to the successful requests count.
@@ -28,6 +30,16 @@ public class RequestsCount {
         }
     }
 
+    /**
+     * Add the lines of text carried by a request, successful or not.
+     * @param lines the number of lines in the request
+     */
+    public void markLines(int lines) {
+        synchronized (lock3) {
+            lineCount += lines;
+        }
+    }
+
     /**
      * Get the number of successful requests.
      * @return the succCount
@@ -43,4 +55,14 @@ public class RequestsCount {
     public synchronized int getFailCount() {
         return failCount;
     }
+
+    /**
+     * Get the number of lines of text carried by all the requests.
+     * @return the lineCount
+     */
+    public long getLineCount() {
+        synchronized (lock3) {
+            return lineCount;
+        }
+    }
 }
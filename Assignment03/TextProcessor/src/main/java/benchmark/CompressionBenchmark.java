@@ -0,0 +1,93 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.WordCountCodec;
+import service.WordCountService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the CPU cost of compressing the binary word-count messages against the bytes saved, on messages merged
+ * from a number of lines of the test corpus. The sizes of the plain and compressed messages are printed when the
+ * trial is set up.
+ * Run from the TextProcessor directory with:
+ * java -cp target/classes:&lt;dependencies&gt; org.openjdk.jmh.Main CompressionBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"../TSAClient02/src/main/resources/bsds-summer-2021-testdata.txt"})
+    private String corpus;
+
+    @Param({"1", "100", "1000"})
+    private int lines;
+
+    @Param({"1", "6"})
+    private int level;
+
+    private HashMap<String, Integer> wordCount;
+    private byte[] plain;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> text = Files.readAllLines(Paths.get(corpus), StandardCharsets.UTF_8);
+        // merge the first non-empty lines from the middle of the corpus, as a batch of requests would be
+        StringBuilder sb = new StringBuilder();
+        int taken = 0;
+        for (int i = text.size() / 2; taken < lines; i = (i + 1) % text.size()) {
+            if (!text.get(i).trim().isEmpty()) {
+                sb.append(text.get(i)).append('\n');
+                taken++;
+            }
+        }
+        char[] chars = sb.toString().toCharArray();
+        wordCount = WordCountService.countWords(chars, 0, chars.length);
+        plain = WordCountCodec.get().encode(wordCount);
+        compressed = WordCountCodec.get().compress(plain, level);
+        System.out.println(String.format("%n%d lines, %d words: plain %d bytes, deflate level %d %d bytes",
+                lines, wordCount.size(), plain.length, level, compressed.length));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return WordCountCodec.get().encode(wordCount);
+    }
+
+    @Benchmark
+    public byte[] encodeCompress() {
+        WordCountCodec codec = WordCountCodec.get();
+        return codec.compress(codec.encode(wordCount), level);
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> decode() {
+        return WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, null, plain, null);
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> decompressDecode() {
+        return WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, WordCountCodec.DEFLATE, compressed, null);
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.ParallelWordCounter;
+import service.WordCountService;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the sequential counting with the fork/join counting by body size, to choose the parallel threshold.
+ * The threshold of the parallel counter is zero here, so every size takes the fork/join path. It is only
+ * meaningful on a multi-core host, on a single core the fork/join path only adds its overhead.
+ * Run with: java -cp target/classes:&lt;dependencies&gt; org.openjdk.jmh.Main ParallelWordCountBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelWordCountBenchmark {
+
+    @Param({"4096", "65536", "1048576", "8388608"})
+    private int size;
+
+    @Param({"16384"})
+    private int chunk;
+
+    private char[] chars;
+    private ParallelWordCounter counter;
+
+    @Setup
+    public void setup() {
+        // words drawn from a vocabulary of 20000 words of 3 to 10 letters
+        Random random = new Random(42);
+        String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+        }
+        this.chars = sb.toString().toCharArray();
+        this.counter = new ParallelWordCounter(new ForkJoinPool(), 0, chunk);
+    }
+
+    @TearDown
+    public void tearDown() {
+        counter.close();
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> sequential() {
+        return WordCountService.countWords(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> parallel() {
+        return counter.countWords(chars, 0, chars.length);
+    }
+}
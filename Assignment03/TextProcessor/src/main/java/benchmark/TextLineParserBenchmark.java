@@ -0,0 +1,77 @@
+package benchmark;
+
+import com.google.gson.Gson;
+import io.swagger.client.model.TextLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.TextLineParser;
+import service.WordCountService;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the old POST body path (readLine + Gson + split) with the streaming parser feeding the tokenizer.
+ * Run with: java -cp target/classes:&lt;dependencies&gt; org.openjdk.jmh.Main TextLineParserBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextLineParserBenchmark {
+
+    private static final String LINE = "The Project Gutenberg EBook of The Adventures of Sherlock Holmes, "
+            + "by Sir Arthur Conan Doyle. This eBook is for the use of anyone anywhere at no cost and with "
+            + "almost no restrictions whatsoever. You may copy it, give it away or re-use it under the terms "
+            + "of the Project Gutenberg License included with this eBook or online at www.gutenberg.net";
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        TextLine textLine = new TextLine();
+        textLine.setMessage(LINE);
+        this.body = new Gson().toJson(textLine).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, Integer> gsonPath() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line);
+        }
+        TextLine textLine = new Gson().fromJson(sb.toString(), TextLine.class);
+
+        HashMap<String, Integer> wordCount = new HashMap<String, Integer>();
+        for (String word : textLine.getMessage().split("\\s+")) {
+            wordCount.put(word, wordCount.getOrDefault(word, 0) + 1);
+        }
+        return wordCount;
+    }
+
+    @Benchmark
+    public Map<String, Integer> streamingPath() throws IOException {
+        TextLineParser parser = TextLineParser.get();
+        parser.parse(new ByteArrayInputStream(body));
+        return WordCountService.countWords(parser.chars(), 0, parser.length());
+    }
+}
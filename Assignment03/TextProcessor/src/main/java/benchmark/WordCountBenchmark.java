@@ -0,0 +1,75 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.WordCounter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the regex split with boxed HashMap counting against the hand-rolled scanner with the primitive
+ * open-addressing map, on a line and on a paragraph of text.
+ * Run with: java -cp target/classes:&lt;dependencies&gt; org.openjdk.jmh.Main WordCountBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordCountBenchmark {
+
+    private static final String LINE = "It was the best of times, it was the worst of times, it was the age of wisdom, "
+            + "it was the age of foolishness, it was the epoch of belief, it was the epoch of incredulity, "
+            + "it was the season of Light, it was the season of Darkness, it was the spring of hope, "
+            + "it was the winter of despair, we had everything before us, we had nothing before us";
+
+    @Param({"1", "20"})
+    private int lines;
+
+    private String text;
+    private char[] chars;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append(LINE).append(' ').append(i).append('\n');
+        }
+        this.text = sb.toString();
+        this.chars = text.toCharArray();
+    }
+
+    @Benchmark
+    public Map<String, Integer> splitHashMap() {
+        HashMap<String, Integer> wordCount = new HashMap<String, Integer>();
+        String[] words = text.split("\\s+");
+        for (String word : words) {
+            wordCount.put(word, wordCount.getOrDefault(word, 0) + 1);
+        }
+        return wordCount;
+    }
+
+    @Benchmark
+    public int wordCounter() {
+        return WordCounter.get().countWords(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public Map<String, Integer> wordCounterToMap() {
+        WordCounter counter = WordCounter.get();
+        counter.countWords(chars, 0, chars.length);
+        return counter.toMap();
+    }
+}
@@ -0,0 +1,78 @@
+package benchmark;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.WordCountCodec;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the java serialization of a word-count map with the binary codec, by encode time, decode time and
+ * message size. The sizes of both formats are printed when the trial is set up.
+ * Run with: java -cp target/classes:&lt;dependencies&gt; org.openjdk.jmh.Main WordCountCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordCountCodecBenchmark {
+
+    @Param({"20", "5000"})
+    private int words;
+
+    private HashMap<String, Integer> wordCount;
+    private byte[] legacy;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        // words of 3 to 10 letters with small counts, as produced by a line or a batch of lines
+        Random random = new Random(42);
+        wordCount = new HashMap<String, Integer>();
+        while (wordCount.size() < words) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            wordCount.put(new String(word), 1 + random.nextInt(random.nextInt(10) == 0 ? 1000 : 3));
+        }
+        legacy = SerializationUtils.serialize(wordCount);
+        binary = WordCountCodec.get().encode(wordCount);
+        System.out.println(String.format("%n%d words: java %d bytes, binary %d bytes",
+                words, legacy.length, binary.length));
+    }
+
+    @Benchmark
+    public byte[] javaEncode() {
+        return SerializationUtils.serialize(wordCount);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return WordCountCodec.get().encode(wordCount);
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> javaDecode() {
+        return SerializationUtils.deserialize(legacy);
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> binaryDecode() {
+        return WordCountCodec.decodeBinary(binary);
+    }
+}
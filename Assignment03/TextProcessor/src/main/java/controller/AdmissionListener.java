@@ -0,0 +1,38 @@
+package controller;
+
+import service.AdmissionController;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * This class releases an admitted async request once its async context completes,
+ * which also happens after a timeout or an error.
+ */
+public class AdmissionListener implements AsyncListener {
+
+    private final AdmissionController admissionController;
+
+    public AdmissionListener(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        admissionController.release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        // the context is completed after the timeout and released in onComplete
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        // the context is completed after the error and released in onComplete
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
@@ -0,0 +1,176 @@
+package controller;
+
+import service.TextLineParser;
+import service.TextProcessor;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class handles a single POST request in non-blocking mode. The body is read by a ReadListener
+ * without holding a container thread, the text is processed on a separate bounded executor and the result
+ * is written back by a WriteListener before the async context completes. A body larger than the max size,
+ * as declared by its Content-Length or as counted while it is read, is answered with a 413 and not buffered.
+ */
+public class AsyncPostHandler implements ReadListener {
+
+    private final AsyncContext asyncContext;
+    private final ServletInputStream input;
+    private final TextProcessor processor;
+    private final boolean batch;
+    private final ExecutorService executor;
+    private final int maxBodyBytes;
+    private final Body body;
+    private final byte[] buffer = new byte[4096];
+    // set once the body exceeds the max size, the rest of it is then ignored
+    private boolean tooLarge = false;
+
+    /**
+     * Initialize the handler for one request.
+     * @param asyncContext the started async context of the request
+     * @param input the input stream of the request
+     * @param processor the processor to apply on the text line
+     * @param batch true if the body is a batch of text lines
+     * @param executor the bounded executor to run the processor on
+     * @param maxBodyBytes the max size of the body in bytes
+     */
+    public AsyncPostHandler(AsyncContext asyncContext, ServletInputStream input,
+                            TextProcessor processor, boolean batch, ExecutorService executor, int maxBodyBytes) {
+        this.asyncContext = asyncContext;
+        this.input = input;
+        this.processor = processor;
+        this.batch = batch;
+        this.executor = executor;
+        this.maxBodyBytes = maxBodyBytes;
+        // the servlet already rejected a declared length above the max size
+        long length = asyncContext.getRequest().getContentLengthLong();
+        this.body = new Body(length > 0 ? (int) Math.min(length, maxBodyBytes) : buffer.length);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        // only read while the container says it will not block
+        int len;
+        while (!tooLarge && input.isReady() && (len = input.read(buffer)) != -1) {
+            if (body.size() + len > maxBodyBytes) {
+                tooLarge = true;
+                respond(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "The body is too large");
+                return;
+            }
+            body.write(buffer, 0, len);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        if (tooLarge) {
+            return;
+        }
+        try {
+            executor.execute(this::process);
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated, tell the client to come back later
+            respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The server is busy");
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("fail to read the request body: " + throwable.getMessage());
+        if (!tooLarge) {
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Parse the body and apply the processor on it, then respond with the result.
+     */
+    private void process() {
+        TextLineParser parser = TextLineParser.get();
+        try {
+            boolean parsed;
+            try {
+                parsed = batch ? parser.parseBatch(body.toInputStream()) > 0 : parser.parse(body.toInputStream());
+            } catch (IOException e) {
+                parsed = false;
+            }
+
+            // check if body exits and if the target is valid
+            if (parsed && processor.validate(parser.chars(), 0, parser.length())) {
+                int result = 0;
+                try {
+                    result = processor.apply(parser.chars(), 0, parser.length());
+                } catch (Exception e) {
+                    System.err.println("fail to process the text line message");
+                }
+                respond(HttpServletResponse.SC_OK, "" + result);
+            } else {
+                respond(HttpServletResponse.SC_BAD_REQUEST, "The input is not valid");
+            }
+        } finally {
+            parser.release();
+        }
+    }
+
+    /**
+     * Write the response through a WriteListener and complete the async context.
+     * @param status the http status
+     * @param message the response body
+     */
+    private void respond(int status, String message) {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        response.setStatus(status);
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        try {
+            ServletOutputStream out = response.getOutputStream();
+            out.setWriteListener(new WriteListener() {
+                private boolean written = false;
+
+                @Override
+                public void onWritePossible() throws IOException {
+                    if (!written && out.isReady()) {
+                        written = true;
+                        out.write(bytes);
+                    }
+                    // the write is done once the container can take more data
+                    if (written && out.isReady()) {
+                        asyncContext.complete();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    System.err.println("fail to write the response: " + throwable.getMessage());
+                    asyncContext.complete();
+                }
+            });
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("fail to write the response");
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * The buffered body, which is parsed from its own array rather than from a copy.
+     */
+    private static class Body extends ByteArrayOutputStream {
+
+        private Body(int size) {
+            super(size);
+        }
+
+        private ByteArrayInputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -9,37 +9,139 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.gson.Gson;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import io.swagger.client.model.TextLine;
 import model.ChannelPool;
+import model.ConnectionGroup;
+import model.PartitionTopology;
+import model.TopSketchTable;
 import model.WordCount;
-import org.apache.commons.pool2.ObjectPool;
+import model.WordCounterTable;
+import model.WordDictionary;
+import service.AdmissionController;
+import service.BatchPublisher;
+import service.ChannelPublisher;
+import service.DynamoWordCountSink;
+import service.HeavyHitters;
+import service.InProcessTransport;
+import service.ParallelWordCounter;
+import service.PartialStreamException;
+import service.SegmentLogTransport;
+import service.TextLineParser;
 import service.TextProcessor;
+import service.WordCountCache;
 import service.WordCountService;
+import service.WordCountSink;
+import service.WordCountTransport;
+import service.WordCounterSink;
+import statistic.Metrics;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.TimeoutException;
-
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The word-count api. A POST of /wordcount counts the words of a json body and /wordcount/batch those of a batch of
+ * lines, which are handed to the consumers, and /wordcount/stream counts a text/plain document as it is read.
+ * A GET of /wordcount/{word} gives the count of a word and /wordcount?words=a,b,c those of several words.
+ * Two GETs give the most frequent words: /wordcount/instance-top/{k} answers from the summary of the instance
+ * the load balancer picks, so it only covers the bodies posted to that instance since it started and differs
+ * from instance to instance, while /wordcount/top/{k} merges the summaries of all the instances through a shared
+ * table once top_shared_enabled is set, and is not found otherwise. Both answers carry the X-Top-Scope header,
+ * "instance" or "cluster". /metrics and /health give the runtime metrics and the rabbitmq health.
+ */
 public class TextProcessServlet extends HttpServlet {
 
     // this field used for store our various text processor
     private final Map<String, TextProcessor> functions = new HashMap<>();
     private static String queueName = "wordCount";
-    private Connection connection;
-    private ObjectPool<Channel> channelObjectPool;
+    // the suffix of a function url which takes a batch of text lines
+    private static final String BATCH_PATH = "/batch";
+    // the url of the streaming upload of a text/plain document
+    private static final String STREAM_PATH = "/wordcount/stream";
+    // the header of a top-k answer telling whether it covers this instance or the cluster
+    private static final String TOP_SCOPE_HEADER = "X-Top-Scope";
+    // the header of a failed stream telling the offset from which the upload is resumed
+    private static final String COMMITTED_CHARS_HEADER = "X-Committed-Chars";
+    // the url of the runtime metrics
+    private static final String METRICS_PATH = "/metrics";
+    // the url of the health check, which fails while no rabbitmq connection is open
+    private static final String HEALTH_PATH = "/health";
+    // the max number of words of a multi-word query
+    private static final int MAX_MULTI_GET = 100;
+    private ConnectionGroup connections;
+    private ChannelPool channelObjectPool;
+    private int partitions;
+    // the transport to the consumers, either the rabbitmq publisher, the in-process ring buffer or the local log
+    private WordCountTransport transport;
+    // rabbitmq, inprocess or log
+    private String transportType;
+    private AmazonDynamoDB dynamoClient;
     private DynamoDBMapper mapper;
+    // the counter of every word, null if the word-count is stored as items
+    private WordCounterTable counters;
+    // the shared dictionary of word ids, null unless the messages carry word ids
+    private WordDictionary dictionary;
+    // the read-through cache of GET lookups, null if caching is disabled
+    private WordCountCache wordCountCache;
+    // the most frequent words seen by this servlet
+    private HeavyHitters heavyHitters;
+    private int topCapacity;
+    // the summaries of all the instances, null unless the top-k of the cluster is enabled
+    private TopSketchTable topSketches;
+    private final String instanceId = UUID.randomUUID().toString();
+    private long topPublishInterval;
+    // puts the summary of this instance in the shared table
+    private ScheduledExecutorService topPublisher;
+    // the last merge of the summaries of the cluster and its time
+    private volatile Map<String, Long> clusterTop;
+    private volatile long clusterTopAt;
+    // the executor running the lookups of a multi-word query in parallel
+    private ExecutorService readExecutor;
+    // the counter of large bodies, null if parallel counting is disabled
+    private ParallelWordCounter parallelCounter;
     private Properties properties;
+    // the service counting streamed documents
+    private WordCountService wordCountService;
+    // the number of chars read from a stream between two published deltas
+    private int streamFlushChars;
+    // the max size in bytes of a json body, a larger one is answered with a 413
+    private int maxBodyBytes;
+    // the bounded executor used to publish messages in async mode
+    private ExecutorService publishExecutor;
+    // the micro-batching publisher, null if batching is disabled
+    private BatchPublisher batchPublisher;
+    // the admission controller for POST traffic, null if load shedding is disabled
+    private AdmissionController admissionController;
+    private boolean asyncEnabled;
+    private long asyncTimeout;
 
     @Override
     public void init() throws ServletException {
@@ -51,57 +153,246 @@ public class TextProcessServlet extends HttpServlet {
         } catch (IOException e) {
             System.err.println("can not get properties file");
         }
-        // set mq connection
-        setMqConnection();
-        // set channels pool
-        setChannelPool();
+        // a single-node deployment keeps the word-count within the process or the host instead of sending it to rabbitmq
+        this.transportType = properties.getProperty("transport", "rabbitmq");
+        if (isRabbitMq()) {
+            // set mq connection
+            setMqConnection();
+            // set channels pool
+            setChannelPool();
+        }
         // set daynamo database connection
         setDataSource();
+        // set word count cache
+        setWordCountCache();
+        // set async mode and its publish executor
+        setAsyncMode();
+        // set the transport to the consumers
+        setPublisher();
+        // set micro-batching publisher
+        setBatchPublisher();
+        // set admission control
+        setAdmissionController();
+
+        // set the read path of multi-word and per instance top-k queries
+        setReadPath();
+
+        // set parallel counting of large bodies
+        setParallelCounter();
+
+        this.wordCountService = new WordCountService(transport, batchPublisher, heavyHitters, parallelCounter);
+        this.streamFlushChars = Integer.parseInt(properties.getProperty("stream_flush_kb", "64")) * 1024;
+        functions.put( "/wordcount", wordCountService);
+        functions.put("/wordcount" + BATCH_PATH, wordCountService);
+    }
 
-        functions.put( "/wordcount",new WordCountService(channelObjectPool, queueName));
+    @Override
+    public void destroy() {
+        if (publishExecutor != null) {
+            publishExecutor.shutdown();
+        }
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+        }
+        if (topPublisher != null) {
+            topPublisher.shutdown();
+            try {
+                topSketches.delete(instanceId);
+            } catch (RuntimeException e) {
+                System.err.println("fail to delete the top words of the instance");
+            }
+        }
+        if (parallelCounter != null) {
+            parallelCounter.close();
+        }
+        if (batchPublisher != null) {
+            batchPublisher.close();
+        }
+        if (transport != null) {
+            transport.close();
+        }
+        if (admissionController != null) {
+            admissionController.close();
+        }
+        if (dictionary != null) {
+            dictionary.close();
+        }
+        if (counters != null) {
+            counters.close();
+        }
+        if (connections != null) {
+            connections.close();
+        }
+        super.destroy();
     }
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         response.setContentType("application/json; charset = UTF-8");
 
-        PrintWriter out = response.getWriter();
+        String path = request.getPathInfo();
+        // a json body is buffered whole, so a declared length above the max size is refused before reading it
+        if (isUrlValid(path) && request.getContentLengthLong() > maxBodyBytes) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            response.getWriter().write("The body is too large");
+            return;
+        }
 
-        String pathVariable = request.getPathInfo();
+        // shed the load before reading the body when the publish path is saturated
+        boolean admitted = false;
+        if (admissionController != null && (isUrlValid(path) || isStream(path))) {
+            if (!admissionController.tryAcquire()) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "" + admissionController.getRetryAfterSeconds());
+                response.getWriter().write("The server is overloaded");
+                return;
+            }
+            admitted = true;
+        }
 
-        if (!isUrlValid(pathVariable)) {
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            out.write(new Gson().toJson("This operation is not provided"));
+        if (asyncEnabled && isUrlValid(path)) {
+            // hand the request over to the listeners and release the container thread
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(asyncTimeout);
+            if (admitted) {
+                asyncContext.addListener(new AdmissionListener(admissionController));
+            }
+            request.getInputStream().setReadListener(new AsyncPostHandler(asyncContext, request.getInputStream(),
+                    functions.get(path), isBatch(path), publishExecutor, maxBodyBytes));
+            return;
+        }
 
-        } else {
-            BufferedReader reader = request.getReader();
-            StringBuilder sb = new StringBuilder();
+        if (asyncEnabled && isStream(path)) {
+            // the stream is read by blocking, so it is read on the publish executor instead of a container thread
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(asyncTimeout);
+            if (admitted) {
+                asyncContext.addListener(new AdmissionListener(admissionController));
+            }
+            try {
+                publishExecutor.execute(() -> {
+                    try {
+                        processPost(request, response, path);
+                    } catch (IOException e) {
+                        System.err.println("fail to write the response");
+                    } finally {
+                        asyncContext.complete();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor is saturated, tell the client to come back later
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.getWriter().write("The server is busy");
+                asyncContext.complete();
+            }
+            return;
+        }
 
-            String line = "";
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
+        try {
+            processPost(request, response, path);
+        } finally {
+            if (admitted) {
+                admissionController.release();
             }
+        }
+    }
 
-            TextLine textLine = new Gson().fromJson(sb.toString(), TextLine.class);
+    /**
+     * Process a POST request on the container thread.
+     * @param request the request
+     * @param response the response
+     * @param pathVariable the function name
+     */
+    private void processPost(HttpServletRequest request, HttpServletResponse response, String pathVariable)
+            throws IOException {
+        PrintWriter out = response.getWriter();
 
-            TextProcessor processor = functions.get(pathVariable);
+        if (isStream(pathVariable)) {
+            processStream(request, response, out);
 
-            // check if body exits and if the target is valid
-            if (textLine != null && processor.validate(textLine.getMessage())) {
-                response.setStatus(HttpServletResponse.SC_OK);
-                int result = 0;
-                try {
-                    result = processor.apply(textLine.getMessage());
-                } catch (Exception e) {
-                    System.err.println("fail to process the text line message");
+        } else if (!isUrlValid(pathVariable)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write(new Gson().toJson("This operation is not provided"));
+
+        } else {
+            // decode the message straight from the body into the parser's buffer
+            TextLineParser parser = TextLineParser.get();
+            try {
+                boolean parsed = isBatch(pathVariable)
+                        ? parser.parseBatch(request.getInputStream()) > 0
+                        : parser.parse(request.getInputStream());
+
+                TextProcessor processor = functions.get(pathVariable);
+
+                // check if body exits and if the target is valid
+                if (parsed && processor.validate(parser.chars(), 0, parser.length())) {
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    int result = 0;
+                    try {
+                        result = processor.apply(parser.chars(), 0, parser.length());
+                    } catch (Exception e) {
+                        System.err.println("fail to process the text line message");
+                    }
+                    out.write("" + result);
+                } else {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.write("The input is not valid");
                 }
-                out.write("" + result);
-            } else {
+            } finally {
+                parser.release();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Count a streamed text/plain document, which may be chunked or gzip encoded, without buffering it.
+     * The partial word-count is published every few KB while the body is read, and the response is the number of
+     * distinct words. A failed stream tells in a header the number of decoded chars already published.
+     * @param request the request
+     * @param response the response
+     * @param out the response writer
+     */
+    private void processStream(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase().startsWith("text/plain")) {
+            response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            out.write("The content type must be text/plain");
+            return;
+        }
+        String charset = request.getCharacterEncoding() == null ? "UTF-8" : request.getCharacterEncoding();
+        try {
+            InputStream in = request.getInputStream();
+            if ("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            int words = wordCountService.applyStream(new InputStreamReader(in, charset), streamFlushChars);
+            response.setStatus(HttpServletResponse.SC_OK);
+            out.write("" + words);
+        } catch (PartialStreamException e) {
+            // the client resumes the upload after the chars already published
+            response.setHeader(COMMITTED_CHARS_HEADER, "" + e.getCommittedChars());
+            if (e.getCause() instanceof IOException) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.write("The input is not valid");
+            } else {
+                System.err.println("fail to process the text stream");
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.write("fail to process the text stream");
             }
+        } catch (IOException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("The input is not valid");
         }
-        out.flush();
+    }
+
+    /**
+     * Check if the url is the streaming upload.
+     * @param pathVariable the provided url
+     * @return true if it is the streaming url and vice versa
+     */
+    private boolean isStream(String pathVariable) {
+        return STREAM_PATH.equals(pathVariable);
     }
 
     /**
@@ -114,35 +405,186 @@ public class TextProcessServlet extends HttpServlet {
     }
 
     /**
-     * Create one single rabbitmq connection per servlet.
+     * Check if the url is a batch function which takes many text lines in one request.
+     * @param pathVariable the provided url
+     * @return true if it is a batch url and vice versa
+     */
+    private boolean isBatch(String pathVariable) {
+        return pathVariable.endsWith(BATCH_PATH);
+    }
+
+    /**
+     * Create a group of rabbitmq connections per servlet, channels are striped across them so a single
+     * socket is not the ceiling, and they recover automatically together with the declared queues. With partitions
+     * the word-count goes to N queues bound to an exchange instead of the single queue.
      */
     private void setMqConnection() {
-        // create one single rabbitmq connection per servlet
         ConnectionFactory factory = new ConnectionFactory();
 
         factory.setHost(properties.getProperty("hostname"));
         factory.setUsername(properties.getProperty("username"));
         factory.setPassword(properties.getProperty("password"));
 
+        // the number of partition queues the word-count is split over, 0 for the single queue
+        this.partitions = Integer.parseInt(properties.getProperty("mq_partitions", "0"));
+        int size = Integer.parseInt(properties.getProperty("mq_connections", "1"));
+        long recoveryInterval = Long.parseLong(properties.getProperty("mq_recovery_interval_ms", "5000"));
+        this.connections = new ConnectionGroup(factory, size, recoveryInterval);
+    }
+
+    /**
+     * Set the async mode. Publishing is done on a bounded executor so that a few container threads
+     * can keep many POSTs in flight, and a full executor rejects requests instead of queueing forever.
+     * The json bodies buffered in async mode are bounded by the max body size.
+     */
+    private void setAsyncMode() {
+        this.asyncEnabled = Boolean.parseBoolean(properties.getProperty("async_enabled", "false"));
+        this.asyncTimeout = Long.parseLong(properties.getProperty("async_timeout_ms", "30000"));
+        this.maxBodyBytes = Integer.parseInt(properties.getProperty("max_body_kb", "1024")) * 1024;
+        int threads = Integer.parseInt(properties.getProperty("publish_threads", "20"));
+        int queueSize = Integer.parseInt(properties.getProperty("publish_queue_size", "4096"));
+        this.publishExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Check if the word-count is sent to the consumers through rabbitmq.
+     * @return true if the transport is rabbitmq and vice versa
+     */
+    private boolean isRabbitMq() {
+        return !"inprocess".equals(transportType) && !"log".equals(transportType);
+    }
+
+    /**
+     * Set the transport to the consumers. In process, the word-count maps go through a ring buffer to consumer
+     * threads storing them in Dynamo. With the log, they are appended to memory-mapped segments on local disk
+     * which the consumers on the host tail. Otherwise they are published over the channels pool, and in confirm mode
+     * the broker confirms are tracked asynchronously per channel, nacked messages are retried and unconfirmed
+     * publishes are bounded.
+     * The message format is the java serialization, the binary codec or the binary codec with the word ids
+     * of the shared dictionary, and the messages from a size on are compressed with deflate.
+     */
+    private void setPublisher() throws ServletException {
+        if ("inprocess".equals(transportType)) {
+            int capacity = Integer.parseInt(properties.getProperty("inprocess_capacity", "4096"));
+            int consumers = Integer.parseInt(properties.getProperty("inprocess_consumers", "4"));
+            int batchSize = Integer.parseInt(properties.getProperty("inprocess_batch_size", "64"));
+            WordCountSink sink = counters == null ? new DynamoWordCountSink(mapper) : new WordCounterSink(counters);
+            this.transport = new InProcessTransport(capacity, consumers, batchSize, sink);
+            return;
+        }
+        // keep the java serialization until every consumer decodes the binary format
+        String format = properties.getProperty("message_format", "java");
+        if ("dictionary".equals(format)) {
+            String table = properties.getProperty("dictionary_table", "wordDictionary");
+            int maxCached = Integer.parseInt(properties.getProperty("dictionary_max_cached", "1000000"));
+            int threads = Integer.parseInt(properties.getProperty("dictionary_assign_threads", "4"));
+            this.dictionary = new WordDictionary(dynamoClient, table, maxCached, threads);
+        }
+        if ("log".equals(transportType)) {
+            // the log is always written in the binary format
+            Path dir = Paths.get(properties.getProperty("log_dir", "wordcount-log"));
+            int segmentSize = Integer.parseInt(properties.getProperty("log_segment_mb", "64")) * 1024 * 1024;
+            long flushInterval = Long.parseLong(properties.getProperty("log_flush_interval_ms", "1000"));
+            long retention = Long.parseLong(properties.getProperty("log_retention_ms", "86400000"));
+            try {
+                this.transport = new SegmentLogTransport(dir, segmentSize, flushInterval, retention, dictionary);
+            } catch (IOException e) {
+                throw new ServletException("can not open the word count log", e);
+            }
+            return;
+        }
+        boolean confirms = Boolean.parseBoolean(properties.getProperty("publish_confirms", "false"));
+        int maxUnconfirmed = Integer.parseInt(properties.getProperty("publish_max_unconfirmed", "1000"));
+        int maxRetries = Integer.parseInt(properties.getProperty("publish_max_retries", "3"));
+        boolean binary = "binary".equals(format) || dictionary != null;
+        ChannelPublisher publisher = new ChannelPublisher(channelObjectPool, queueName, confirms, maxUnconfirmed,
+                maxRetries, binary, dictionary);
+        // compress the large messages, which is told to the consumers by the content encoding
+        int compressThreshold = Integer.parseInt(properties.getProperty("compress_threshold_bytes", "0"));
+        int compressLevel = Integer.parseInt(properties.getProperty("compress_level", "1"));
+        publisher.setCompression(compressThreshold, compressLevel);
+        publisher.setPartitions(partitions);
+        this.transport = publisher;
+    }
+
+    /**
+     * Set the micro-batching publisher, which merges the word-count of concurrent requests
+     * over a time window or until a number of distinct words is reached.
+     */
+    private void setBatchPublisher() {
+        if (!Boolean.parseBoolean(properties.getProperty("publish_batch_enabled", "false"))) {
+            return;
+        }
+        long window = Long.parseLong(properties.getProperty("publish_batch_window_ms", "5"));
+        int maxWords = Integer.parseInt(properties.getProperty("publish_batch_max_words", "5000"));
+        this.batchPublisher = new BatchPublisher(transport, window, maxWords);
+    }
+
+    /**
+     * Set the admission control of POST traffic, which is driven by the in-flight publishes,
+     * the channel pool wait time and the broker queue depth read by a passive queue declare,
+     * or the depth of the ring buffer in process. The log has no depth known to the writer.
+     */
+    private void setAdmissionController() {
+        if (!Boolean.parseBoolean(properties.getProperty("admission_enabled", "false"))) {
+            return;
+        }
+        int maxInFlight = Integer.parseInt(properties.getProperty("admission_max_in_flight", "1000"));
+        long maxBorrowWait = Long.parseLong(properties.getProperty("admission_max_borrow_wait_ms", "50"));
+        long maxQueueDepth = Long.parseLong(properties.getProperty("admission_max_queue_depth", "100000"));
+        int retryAfter = Integer.parseInt(properties.getProperty("admission_retry_after_s", "1"));
+        long probeInterval = Long.parseLong(properties.getProperty("admission_probe_interval_ms", "1000"));
+        Callable<Long> depthProbe = () -> 0L;
+        if (isRabbitMq()) {
+            depthProbe = this::getQueueDepth;
+        } else if (transport instanceof InProcessTransport) {
+            depthProbe = ((InProcessTransport) transport)::getDepth;
+        }
+        this.admissionController = new AdmissionController(maxInFlight, maxBorrowWait, maxQueueDepth, retryAfter,
+                isRabbitMq() ? channelObjectPool::sampleBorrowWait : () -> 0L, depthProbe, probeInterval);
+    }
+
+    /**
+     * Get the number of ready messages in the queue, or in all partition queues, by a passive declare.
+     * @return the queue depth
+     */
+    private long getQueueDepth() throws Exception {
+        Channel channel = connections.createChannel();
         try {
-            this.connection = factory.newConnection();
-        } catch (IOException | TimeoutException e) {
-            System.err.println("fail to create rabbitmq connection");
-            e.printStackTrace();;
+            long depth = channel.queueDeclarePassive(queueName).getMessageCount();
+            for (int i = 0; i < partitions; i++) {
+                depth += channel.queueDeclarePassive(PartitionTopology.queue(queueName, i)).getMessageCount();
+            }
+            return depth;
+        } finally {
+            if (channel.isOpen()) {
+                channel.close();
+            }
         }
     }
 
+    /**
+     * Set the channels pool. Dead channels are recreated from the connections, and in thread-affine
+     * mode each container thread keeps its own channel.
+     */
     private void setChannelPool() {
-        this.channelObjectPool = new ChannelPool(30);
-        for (int i = 0; i < 20; i++) {
-            try {
-                Channel channel = connection.createChannel();
-                channel.queueDeclare(queueName, false, false, false, null);
-                this.channelObjectPool.returnObject(channel);
-            } catch (Exception e) {
-                System.err.println("fail to create rabbitmq channel");
-            }
+        int poolSize = Integer.parseInt(properties.getProperty("channel_pool_size", "20"));
+        boolean threadAffine = Boolean.parseBoolean(properties.getProperty("channel_thread_affine", "false"));
+        this.channelObjectPool = new ChannelPool(this::createChannel, poolSize, threadAffine);
+    }
+
+    /**
+     * Create a channel on the next open connection and declare the queue on it.
+     * @return the channel
+     */
+    private Channel createChannel() throws IOException {
+        Channel channel = connections.createChannel();
+        channel.queueDeclare(queueName, false, false, false, null);
+        if (partitions > 0) {
+            PartitionTopology.declare(channel, queueName, partitions);
         }
+        return channel;
     }
 
     @Override
@@ -151,30 +593,33 @@ public class TextProcessServlet extends HttpServlet {
 
         PrintWriter out = response.getWriter();
 
+        if (METRICS_PATH.equals(request.getPathInfo())) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            out.write(new Gson().toJson(Metrics.snapshot()));
+            out.flush();
+            return;
+        }
+        if (HEALTH_PATH.equals(request.getPathInfo())) {
+            writeHealth(response, out);
+            out.flush();
+            return;
+        }
+
         String[] pathVariable = request.getPathInfo().split("/");
 
-        if (!isGetUrlValid(pathVariable)) {
+        if (isMultiGetUrlValid(pathVariable)) {
+            writeMultiGet(request.getParameter("words"), response, out);
+        } else if (isTopUrlValid(pathVariable)) {
+            writeTop(pathVariable[3], response, out);
+        } else if (isClusterTopUrlValid(pathVariable)) {
+            writeClusterTop(pathVariable[3], response, out);
+        } else if (!isGetUrlValid(pathVariable)) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             out.write("This operation is not provided");
 
         } else {
 
-            int count = 0;
-
-            // construct the query
-            Map<String, AttributeValue> eav = new HashMap<String, AttributeValue>();
-            eav.put(":val1", new AttributeValue().withS(pathVariable[2]));
-
-            DynamoDBQueryExpression<WordCount> queryExpression = new DynamoDBQueryExpression<WordCount>()
-                    .withIndexName("word-index")
-                    .withKeyConditionExpression("word = :val1")
-                    .withExpressionAttributeValues(eav).withConsistentRead(false);
-
-            List<WordCount> betweenReplies = mapper.query(WordCount.class, queryExpression);
-
-            for (WordCount wordCount : betweenReplies) {
-                count += wordCount.getCount();
-            }
+            int count = lookup(pathVariable[2]);
 
             // check if body exits and if the target is valid
             if (count > 0) {
@@ -188,6 +633,269 @@ public class TextProcessServlet extends HttpServlet {
         out.flush();
     }
 
+    /**
+     * Write the number of open rabbitmq connections out of the configured ones. The check fails while none is
+     * open, and a connection that failed to open at startup counts as closed until it is opened in the background.
+     * @param response the response
+     * @param out the response writer
+     */
+    private void writeHealth(HttpServletResponse response, PrintWriter out) {
+        Map<String, Object> health = new LinkedHashMap<>();
+        boolean healthy = true;
+        if (connections != null) {
+            int open = connections.getOpenCount();
+            health.put("connection_open", open);
+            health.put("connection_stripes", connections.getSize());
+            healthy = open > 0;
+        }
+        health.put("status", healthy ? "UP" : "DOWN");
+        response.setStatus(healthy ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        out.write(new Gson().toJson(health));
+    }
+
+    /**
+     * Write the counts of a comma separated list of words as a json object. In counter mode the counts are read
+     * in batches straight from the counter table, while in item mode every word is looked up through the cache.
+     * @param words the words parameter
+     * @param response the response
+     * @param out the response writer
+     */
+    private void writeMultiGet(String words, HttpServletResponse response, PrintWriter out) {
+        Set<String> targets = new LinkedHashSet<>();
+        if (words != null) {
+            for (String word : words.split(",")) {
+                if (!word.isEmpty()) {
+                    targets.add(word);
+                }
+            }
+        }
+        if (targets.isEmpty() || targets.size() > MAX_MULTI_GET) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("The words are not valid");
+            return;
+        }
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (counters != null) {
+            // the counters are keyed by word, so they are read by BatchGetItem calls of up to 100 keys
+            try {
+                Map<String, Integer> found = counters.getAll(targets);
+                for (String word : targets) {
+                    counts.put(word, found.getOrDefault(word, 0));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                out.write("The query is interrupted");
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("fail to query the word counts");
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.write("The query failed");
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            out.write(new Gson().toJson(counts));
+            return;
+        }
+
+        // the items are only found by a query of the word index each, which cannot be batched, so the queries
+        // run concurrently: the latency is about one round trip, though it still costs one query per word
+        Map<String, Future<Integer>> futures = new LinkedHashMap<>();
+        for (String word : targets) {
+            futures.put(word, readExecutor.submit(() -> lookup(word)));
+        }
+        for (Map.Entry<String, Future<Integer>> entry : futures.entrySet()) {
+            try {
+                counts.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException | ExecutionException e) {
+                counts.put(entry.getKey(), 0);
+            }
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        out.write(new Gson().toJson(counts));
+    }
+
+    /**
+     * Write the k most frequent words seen by this servlet instance as a json object. The summary is neither
+     * shared with the other instances behind the load balancer nor kept over a restart, so the answer only covers
+     * the bodies posted to this instance since it started.
+     * @param k the number of words
+     * @param response the response
+     * @param out the response writer
+     */
+    private void writeTop(String k, HttpServletResponse response, PrintWriter out) {
+        int size = parseK(k);
+        if (size <= 0) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("The k is not valid");
+            return;
+        }
+        response.setHeader(TOP_SCOPE_HEADER, "instance");
+        response.setStatus(HttpServletResponse.SC_OK);
+        out.write(new Gson().toJson(heavyHitters.top(size)));
+    }
+
+    /**
+     * Write the k most frequent words of the cluster as a json object, merged from the summaries the instances
+     * put in the shared table. A merge is reused for a publish interval, and k is at most the summary capacity.
+     * @param k the number of words
+     * @param response the response
+     * @param out the response writer
+     */
+    private void writeClusterTop(String k, HttpServletResponse response, PrintWriter out) {
+        if (topSketches == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            out.write("The top words of the cluster are not enabled, see /wordcount/instance-top/{k}");
+            return;
+        }
+        int size = parseK(k);
+        if (size <= 0) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("The k is not valid");
+            return;
+        }
+        Map<String, Long> top = clusterTop;
+        long now = System.currentTimeMillis();
+        if (top == null || now - clusterTopAt > topPublishInterval) {
+            try {
+                // a summary not put for a few intervals belongs to a gone instance
+                top = topSketches.top(now - 3 * topPublishInterval, topCapacity);
+            } catch (RuntimeException e) {
+                System.err.println("fail to read the top words of the cluster");
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.write("The query failed");
+                return;
+            }
+            clusterTop = top;
+            clusterTopAt = now;
+        }
+        Map<String, Long> answer = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : top.entrySet()) {
+            if (answer.size() == size) {
+                break;
+            }
+            answer.put(entry.getKey(), entry.getValue());
+        }
+        response.setHeader(TOP_SCOPE_HEADER, "cluster");
+        response.setStatus(HttpServletResponse.SC_OK);
+        out.write(new Gson().toJson(answer));
+    }
+
+    private static int parseK(String k) {
+        try {
+            return Integer.parseInt(k);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Look up the count of a word through the cache if it is enabled.
+     * @param word the word
+     * @return the count of the word, 0 if it is not found or the lookup fails
+     */
+    private int lookup(String word) {
+        try {
+            return wordCountCache == null ? queryCount(word) : wordCountCache.get(word);
+        } catch (Exception e) {
+            System.err.println("fail to query the word count");
+            return 0;
+        }
+    }
+
+    /**
+     * Set the parallel counting of bodies above a size threshold on a dedicated fork/join pool. It is off by
+     * default as its gain is unproven: {@link benchmark.ParallelWordCountBenchmark} has only been run on a single
+     * core, where the fork/join path is slower at every size, so the threshold must be chosen by running it on
+     * the target hosts first.
+     */
+    private void setParallelCounter() {
+        if (!Boolean.parseBoolean(properties.getProperty("parallel_count_enabled", "false"))) {
+            return;
+        }
+        int parallelism = Integer.parseInt(properties.getProperty("parallel_count_threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        int threshold = Integer.parseInt(properties.getProperty("parallel_count_threshold", "65536"));
+        int chunkSize = Integer.parseInt(properties.getProperty("parallel_count_chunk", "16384"));
+        this.parallelCounter = new ParallelWordCounter(new ForkJoinPool(parallelism), threshold, chunkSize);
+    }
+
+    /**
+     * Set the heavy-hitters summary behind the top-k queries and the executor of multi-word queries. With the
+     * top-k of the cluster enabled the summary is put in the shared table periodically.
+     */
+    private void setReadPath() {
+        this.topCapacity = Integer.parseInt(properties.getProperty("top_capacity", "1000"));
+        int threads = Integer.parseInt(properties.getProperty("read_threads", "10"));
+        this.heavyHitters = new HeavyHitters(topCapacity);
+        this.readExecutor = Executors.newFixedThreadPool(threads);
+        if (!Boolean.parseBoolean(properties.getProperty("top_shared_enabled", "false"))) {
+            return;
+        }
+        this.topSketches = new TopSketchTable(dynamoClient, properties.getProperty("top_table", "topSketch"));
+        this.topPublishInterval = Long.parseLong(properties.getProperty("top_publish_interval_ms", "10000"));
+        this.topPublisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "top-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        topPublisher.scheduleWithFixedDelay(() -> {
+            try {
+                topSketches.put(instanceId, heavyHitters.top(topCapacity));
+            } catch (RuntimeException e) {
+                System.err.println("fail to put the top words of the instance");
+            }
+        }, topPublishInterval, topPublishInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Query the count of a word, either by reading its counter or by summing its items on the word index.
+     * @param word the word
+     * @return the count of the word
+     */
+    private int queryCount(String word) {
+        if (counters != null) {
+            try {
+                // a hot word is summed over its shards
+                return counters.get(word);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+        int count = 0;
+
+        // construct the query
+        Map<String, AttributeValue> eav = new HashMap<String, AttributeValue>();
+        eav.put(":val1", new AttributeValue().withS(word));
+
+        DynamoDBQueryExpression<WordCount> queryExpression = new DynamoDBQueryExpression<WordCount>()
+                .withIndexName("word-index")
+                .withKeyConditionExpression("word = :val1")
+                .withExpressionAttributeValues(eav).withConsistentRead(false);
+
+        List<WordCount> betweenReplies = mapper.query(WordCount.class, queryExpression);
+
+        for (WordCount wordCount : betweenReplies) {
+            count += wordCount.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Set the read-through cache in front of the word count lookup.
+     */
+    private void setWordCountCache() {
+        if (!Boolean.parseBoolean(properties.getProperty("cache_enabled", "false"))) {
+            return;
+        }
+        int maxSize = Integer.parseInt(properties.getProperty("cache_max_size", "10000"));
+        long ttl = Long.parseLong(properties.getProperty("cache_ttl_ms", "1000"));
+        long loadTimeout = Long.parseLong(properties.getProperty("cache_load_timeout_ms", "5000"));
+        this.wordCountCache = new WordCountCache(this::queryCount, maxSize, ttl, loadTimeout);
+    }
+
     /**
      * Check if the url is valid.
      * @param pathVariable the provided url and it is the function name in this case.
@@ -198,16 +906,52 @@ public class TextProcessServlet extends HttpServlet {
     }
 
     /**
-     * Set the data source of Dynamo
+     * Check if the url is a multi-word query, ie /wordcount?words=a,b,c.
+     * @param pathVariable the provided url split by slash
+     * @return true if the url is valid and vice versa
+     */
+    private boolean isMultiGetUrlValid(String[] pathVariable) {
+        return pathVariable.length == 2 && pathVariable[1].equals("wordcount");
+    }
+
+    /**
+     * Check if the url is a top-k query of the cluster, ie /wordcount/top/{k}.
+     * @param pathVariable the provided url split by slash
+     * @return true if the url is valid and vice versa
+     */
+    private boolean isClusterTopUrlValid(String[] pathVariable) {
+        return pathVariable.length == 4 && pathVariable[1].equals("wordcount") && pathVariable[2].equals("top");
+    }
+
+    /**
+     * Check if the url is a top-k query of this instance, ie /wordcount/instance-top/{k}.
+     * @param pathVariable the provided url split by slash
+     * @return true if the url is valid and vice versa
+     */
+    private boolean isTopUrlValid(String[] pathVariable) {
+        return pathVariable.length == 4 && pathVariable[1].equals("wordcount")
+                && pathVariable[2].equals("instance-top");
+    }
+
+    /**
+     * Set the data source of Dynamo. The word-count is stored either as an item per word and message,
+     * or as one atomic counter per word.
      */
     private void setDataSource() {
         BasicSessionCredentials sessionCredentials = new BasicSessionCredentials(
                properties.getProperty("aws_access_key_id"),
                 properties.getProperty("aws_secret_access_key"),
                 properties.getProperty("aws_session_token"));
-        AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard()
+        this.dynamoClient = AmazonDynamoDBClientBuilder.standard()
                 .withCredentials(new AWSStaticCredentialsProvider(sessionCredentials)).withRegion("us-east-1")
                 .build();
-        this.mapper = new DynamoDBMapper(client);
+        this.mapper = new DynamoDBMapper(dynamoClient);
+        if ("counter".equals(properties.getProperty("storage_mode", "items"))) {
+            this.counters = new WordCounterTable(dynamoClient, properties.getProperty("counter_table", "wordCounter"),
+                    Integer.parseInt(properties.getProperty("counter_threads", "16")),
+                    Integer.parseInt(properties.getProperty("counter_max_attempts", "5")),
+                    Integer.parseInt(properties.getProperty("counter_hot_updates_per_s", "500")),
+                    Integer.parseInt(properties.getProperty("counter_max_shards", "16")));
+        }
     }
 }
@@ -1,37 +1,202 @@
 package model;
 
+import com.rabbitmq.client.AlreadyClosedException;
 import com.rabbitmq.client.Channel;
 import org.apache.commons.pool2.BaseObjectPool;
+import statistic.LatencyHistogram;
+import statistic.Metrics;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * It represents a user-defined channel pool for storing rabbitmq channels.
+ * Channels are validated on borrow and a closed channel is replaced by a new one instead of being handed out.
+ * A replaced channel is always closed, even when it already reports closed, so a channel of a recovering connection
+ * is not recovered as an orphan next to its replacement.
+ * In thread-affine mode every worker thread keeps its own channel, so borrowing never goes through the queue.
+ * The time spent waiting for a channel is recorded in the "channel_borrow_wait" histogram.
  */
 public class ChannelPool extends BaseObjectPool<Channel> {
 
-    BlockingQueue<Channel> channelQueue;
+    private final BlockingQueue<Channel> channelQueue;
+    private final Callable<Channel> factory;
+    private final int poolSize;
+    private final boolean threadAffine;
+    private final ThreadLocal<Channel> threadChannel = new ThreadLocal<>();
+    // the channels bound to threads, closed with the pool
+    private final Set<Channel> threadChannels = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger created = new AtomicInteger();
+    private final LatencyHistogram borrowWait = Metrics.histogram("channel_borrow_wait");
+    // the borrow wait time and the number of borrows since the last sample
+    private final AtomicLong sampleWait = new AtomicLong();
+    private final AtomicLong sampleBorrows = new AtomicLong();
 
     /**
-     * Create a Channel pool and add 50 channels to its pool.
+     * Create a channel pool and fill it with poolSize channels.
+     * @param factory the factory creating a channel ready for publishing
+     * @param poolSize the number of channels shared by the pool
+     * @param threadAffine true to bind one channel to each borrowing thread instead of sharing the pool
      */
-    public ChannelPool(int poolSize) {
-        this.channelQueue = new ArrayBlockingQueue<>(poolSize);
+    public ChannelPool(Callable<Channel> factory, int poolSize, boolean threadAffine) {
+        this.channelQueue = new LinkedBlockingQueue<>(poolSize);
+        this.factory = factory;
+        this.poolSize = poolSize;
+        this.threadAffine = threadAffine;
+        if (!threadAffine) {
+            for (int i = 0; i < poolSize; i++) {
+                Channel channel = create();
+                if (channel != null) {
+                    channelQueue.offer(channel);
+                }
+            }
+        }
     }
 
     @Override
     public Channel borrowObject() throws Exception {
-        return channelQueue.take();
+        long start = System.nanoTime();
+        if (threadAffine) {
+            Channel channel = threadChannel.get();
+            if (channel == null || !channel.isOpen()) {
+                if (channel != null) {
+                    threadChannels.remove(channel);
+                }
+                channel = recreate(channel);
+                threadChannel.set(channel);
+                threadChannels.add(channel);
+            }
+            recordWait(System.nanoTime() - start);
+            return channel;
+        }
+
+        Channel channel = channelQueue.poll();
+        if (channel == null) {
+            // make up for the channels which failed to be created before waiting for a returned one
+            channel = created.get() < poolSize ? create() : null;
+            if (channel == null) {
+                channel = channelQueue.take();
+            }
+        }
+        recordWait(System.nanoTime() - start);
+        if (!channel.isOpen()) {
+            channel = recreate(channel);
+        }
+        return channel;
     }
 
     @Override
     public void returnObject(Channel channel) throws Exception {
-        channelQueue.add(channel);
+        if (threadAffine) {
+            // the channel stays bound to its thread
+            return;
+        }
+        if (!channel.isOpen()) {
+            channel = recreate(channel);
+        }
+        if (!channelQueue.offer(channel)) {
+            // the pool is already full, so the channel is not one of ours
+            closeQuietly(channel);
+        }
     }
 
     @Override
     public void invalidateObject(Channel channel) throws Exception {
-        return;
+        if (threadAffine) {
+            threadChannel.remove();
+            threadChannels.remove(channel);
+            created.decrementAndGet();
+            closeQuietly(channel);
+            return;
+        }
+        Channel replacement = recreate(channel);
+        if (!channelQueue.offer(replacement)) {
+            closeQuietly(replacement);
+        }
+    }
+
+    /**
+     * Get the mean time spent waiting for a channel since the previous call, and start a new sample.
+     * A borrow racing the call may be counted in either sample.
+     * @return the mean borrow wait in nanoseconds, 0 if no channel was borrowed
+     */
+    public long sampleBorrowWait() {
+        long borrows = sampleBorrows.getAndSet(0);
+        long wait = sampleWait.getAndSet(0);
+        return borrows == 0 ? 0 : wait / borrows;
+    }
+
+    @Override
+    public int getNumIdle() {
+        return channelQueue.size();
+    }
+
+    @Override
+    public void close() {
+        Channel channel;
+        while ((channel = channelQueue.poll()) != null) {
+            closeQuietly(channel);
+        }
+        for (Channel bound : threadChannels) {
+            closeQuietly(bound);
+        }
+        threadChannels.clear();
+        super.close();
+    }
+
+    private void recordWait(long wait) {
+        borrowWait.record(wait);
+        sampleWait.addAndGet(wait);
+        sampleBorrows.incrementAndGet();
+    }
+
+    /**
+     * Close a dead channel and create a new one in its place.
+     * @param dead the dead channel, may be null
+     * @return the new channel
+     */
+    private Channel recreate(Channel dead) throws Exception {
+        if (dead != null) {
+            created.decrementAndGet();
+            closeQuietly(dead);
+            Metrics.counter("channel_recreated").incrementAndGet();
+        }
+        created.incrementAndGet();
+        try {
+            return factory.call();
+        } catch (Exception e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private Channel create() {
+        try {
+            created.incrementAndGet();
+            return factory.call();
+        } catch (Exception e) {
+            created.decrementAndGet();
+            System.err.println("fail to create rabbitmq channel");
+            return null;
+        }
+    }
+
+    private void closeQuietly(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            // a closed channel may still be recovering, closing it stops its recovery
+            channel.close();
+        } catch (AlreadyClosedException e) {
+            // it is closed for good
+        } catch (Exception e) {
+            System.err.println("fail to close rabbitmq channel");
+        }
     }
 }
@@ -0,0 +1,158 @@
+package model;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import statistic.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * It represents a group of rabbitmq connections, each with its own socket and I/O thread.
+ * Channels are striped across the connections round-robin and a connection which is not open is skipped,
+ * while the client library recovers it and its topology in the background. The library only recovers a
+ * connection which was opened once, so a connection failing to open, when the broker is down at startup,
+ * is opened again in the background until it is. The open connections are published as the "connection_open"
+ * gauge, out of the "connection_stripes" ones.
+ */
+public class ConnectionGroup {
+
+    private final ConnectionFactory factory;
+    // a stripe is null until its connection is opened
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService opener;
+    private volatile boolean closed;
+
+    /**
+     * Open a number of connections with automatic connection and topology recovery, the ones failing to open
+     * are opened again in the background.
+     * @param factory the connection factory
+     * @param size the number of connections
+     * @param recoveryIntervalMillis the interval between recovery attempts, and between the opening attempts
+     */
+    public ConnectionGroup(ConnectionFactory factory, int size, long recoveryIntervalMillis) {
+        factory.setAutomaticRecoveryEnabled(true);
+        factory.setTopologyRecoveryEnabled(true);
+        factory.setNetworkRecoveryInterval(recoveryIntervalMillis);
+        this.factory = factory;
+        this.connections = new AtomicReferenceArray<>(size);
+        openMissing();
+        this.opener = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-opener");
+            thread.setDaemon(true);
+            return thread;
+        });
+        opener.scheduleWithFixedDelay(this::openMissing, recoveryIntervalMillis, recoveryIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        Metrics.gauge("connection_open", this::getOpenCount);
+        Metrics.gauge("connection_stripes", () -> size);
+    }
+
+    /**
+     * Create a channel on the next open connection.
+     * @return the channel
+     * @throws IOException if no connection is open
+     */
+    public Channel createChannel() throws IOException {
+        int size = connections.length();
+        for (int i = 0; i < size; i++) {
+            Connection connection = connections.get(Math.floorMod(next.getAndIncrement(), size));
+            if (connection != null && connection.isOpen()) {
+                return connection.createChannel();
+            }
+        }
+        throw new IOException("no open rabbitmq connection");
+    }
+
+    /**
+     * Get the number of connections which are open, a connection which was never opened is not.
+     * @return the number of healthy connections
+     */
+    public int getOpenCount() {
+        int open = 0;
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            if (connection != null && connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Get the number of connections the group is made of, open or not.
+     * @return the number of stripes
+     */
+    public int getSize() {
+        return connections.length();
+    }
+
+    /**
+     * Stop opening the missing connections and close all connections.
+     */
+    public void close() {
+        closed = true;
+        opener.shutdownNow();
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.getAndSet(i, null);
+            if (connection == null) {
+                continue;
+            }
+            try {
+                connection.close();
+            } catch (Exception e) {
+                System.err.println("fail to close rabbitmq connection");
+            }
+        }
+    }
+
+    /**
+     * Open the connections which were never opened, the others are recovered by the client library.
+     */
+    private void openMissing() {
+        for (int i = 0; i < connections.length() && !closed; i++) {
+            if (connections.get(i) != null) {
+                continue;
+            }
+            try {
+                Connection connection = factory.newConnection("text-processor-" + i);
+                watch(connection);
+                if (closed || !connections.compareAndSet(i, null, connection)) {
+                    connection.close();
+                }
+            } catch (IOException | TimeoutException e) {
+                Metrics.counter("connection_open_failed").incrementAndGet();
+                System.err.println("fail to create rabbitmq connection " + i + ": " + e);
+            }
+        }
+    }
+
+    private void watch(Connection connection) {
+        connection.addShutdownListener(cause -> {
+            if (!cause.isInitiatedByApplication()) {
+                Metrics.counter("connection_lost").incrementAndGet();
+            }
+        });
+        if (connection instanceof Recoverable) {
+            ((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                    Metrics.counter("connection_recovered").incrementAndGet();
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                }
+            });
+        }
+    }
+}
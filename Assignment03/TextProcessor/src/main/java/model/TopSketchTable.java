@@ -0,0 +1,101 @@
+package model;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The heavy-hitters summaries of all the servlet instances, in a Dynamo table keyed by the string attribute
+ * "instance", so the top-k of the whole cluster is read by merging them. Every instance puts the words of its
+ * summary with their counts as the map attribute "counts", with the time of the put as the number attribute
+ * "updatedAt", and a summary not put again for a while is left out as its instance is gone. The instances count
+ * disjoint requests, so the count of a word is the sum of its counts, an over-estimation bounded by the sum of the
+ * errors of the summaries. A summary of an instance is lost when it restarts. It is a thread-safe class.
+ */
+public class TopSketchTable {
+
+    private static final String INSTANCE = "instance";
+    private static final String COUNTS = "counts";
+    private static final String UPDATED_AT = "updatedAt";
+
+    private final AmazonDynamoDB client;
+    private final String tableName;
+
+    /**
+     * Create a summary table over an existing table.
+     * @param client the dynamo client
+     * @param tableName the summary table
+     */
+    public TopSketchTable(AmazonDynamoDB client, String tableName) {
+        this.client = client;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Replace the summary of an instance.
+     * @param instance the id of the instance
+     * @param counts the words of its summary and their counts
+     */
+    public void put(String instance, Map<String, Long> counts) {
+        Map<String, AttributeValue> values = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            values.put(entry.getKey(), new AttributeValue().withN("" + entry.getValue()));
+        }
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(INSTANCE, new AttributeValue(instance));
+        item.put(COUNTS, new AttributeValue().withM(values));
+        item.put(UPDATED_AT, new AttributeValue().withN("" + System.currentTimeMillis()));
+        client.putItem(new PutItemRequest().withTableName(tableName).withItem(item));
+    }
+
+    /**
+     * Remove the summary of an instance.
+     * @param instance the id of the instance
+     */
+    public void delete(String instance) {
+        client.deleteItem(new DeleteItemRequest().withTableName(tableName)
+                .withKey(Collections.singletonMap(INSTANCE, new AttributeValue(instance))));
+    }
+
+    /**
+     * Merge the summaries put since a time into the k most frequent words.
+     * @param since the time in millis before which a summary is left out
+     * @param k the number of words
+     * @return the words and their summed counts in descending order
+     */
+    public Map<String, Long> top(long since, int k) {
+        Map<String, Long> merged = new HashMap<>();
+        Map<String, AttributeValue> start = null;
+        do {
+            ScanResult result = client.scan(new ScanRequest().withTableName(tableName).withExclusiveStartKey(start));
+            for (Map<String, AttributeValue> item : result.getItems()) {
+                if (!item.containsKey(COUNTS) || Long.parseLong(item.get(UPDATED_AT).getN()) < since) {
+                    continue;
+                }
+                for (Map.Entry<String, AttributeValue> entry : item.get(COUNTS).getM().entrySet()) {
+                    merged.merge(entry.getKey(), Long.parseLong(entry.getValue().getN()), Long::sum);
+                }
+            }
+            start = result.getLastEvaluatedKey();
+        } while (start != null && !start.isEmpty());
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(k, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+}
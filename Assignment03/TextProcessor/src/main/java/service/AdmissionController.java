@@ -0,0 +1,101 @@
+package service;
+
+import statistic.Metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * This class decides whether a POST is admitted or shed. A request is rejected when too many publishes are
+ * in flight, when borrowing a channel has become slow, or when the broker queue has grown past its limit,
+ * so the servlet fails fast before the broker memory alarm blocks every publisher. The borrow wait is sampled
+ * with the queue depth over every probe interval, so it falls back once the shed requests stop borrowing.
+ * It is a thread-safe class.
+ */
+public class AdmissionController {
+
+    private final int maxInFlight;
+    private final long maxBorrowWaitNanos;
+    private final long maxQueueDepth;
+    private final int retryAfterSeconds;
+    private final LongSupplier borrowWait;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private volatile long queueDepth;
+    private volatile long recentBorrowWait;
+
+    /**
+     * Create an admission controller and start polling the queue depth.
+     * @param maxInFlight the max number of requests being processed
+     * @param maxBorrowWaitMillis the max recent wait time for a channel
+     * @param maxQueueDepth the max number of ready messages in the broker queue
+     * @param retryAfterSeconds the delay suggested to rejected clients
+     * @param borrowWait the sampler of the mean wait time for a channel since its previous call, in nanoseconds
+     * @param queueDepthProbe the probe returning the message count of the queue
+     * @param probeIntervalMillis the interval between two probes
+     */
+    public AdmissionController(int maxInFlight, long maxBorrowWaitMillis, long maxQueueDepth, int retryAfterSeconds,
+                               LongSupplier borrowWait, Callable<Long> queueDepthProbe, long probeIntervalMillis) {
+        this.maxInFlight = maxInFlight;
+        this.maxBorrowWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxBorrowWaitMillis);
+        this.maxQueueDepth = maxQueueDepth;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.borrowWait = borrowWait;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "queue-depth-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            recentBorrowWait = borrowWait.getAsLong();
+            try {
+                queueDepth = queueDepthProbe.call();
+            } catch (Exception e) {
+                System.err.println("fail to probe the queue depth");
+            }
+        }, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Try to admit a request, an admitted request must be released once it is done.
+     * @return true if the request is admitted and vice versa
+     */
+    public boolean tryAcquire() {
+        if (queueDepth > maxQueueDepth || recentBorrowWait > maxBorrowWaitNanos) {
+            Metrics.counter("admission_rejected").incrementAndGet();
+            return false;
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            Metrics.counter("admission_rejected").incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release an admitted request.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Get the delay suggested to rejected clients.
+     * @return the delay in seconds
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Stop polling the queue depth.
+     */
+    public void close() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,114 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A micro-batching publisher which merges the word-count maps of concurrent requests and publishes the
+ * merged delta as a single message, either when the time window elapses or when the number of distinct
+ * words reaches the threshold. Every submitted map gets a future completed once its batch is handed to the broker.
+ * It is a thread-safe class.
+ */
+public class BatchPublisher {
+
+    private final WordCountTransport publisher;
+    private final int maxWords;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+
+    private HashMap<String, Integer> pending = new HashMap<>();
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    // guarded by lock, set once the publisher no longer accepts deltas
+    private boolean closed;
+
+    /**
+     * Create a batch publisher and start its flushing timer.
+     * @param publisher the transport the batches are published to
+     * @param windowMillis the max time a delta waits before it is published
+     * @param maxWords the number of distinct words which triggers a flush
+     */
+    public BatchPublisher(WordCountTransport publisher, long windowMillis, int maxWords) {
+        this.publisher = publisher;
+        this.maxWords = maxWords;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Merge a word-count delta into the current batch.
+     * @param wordCount the delta of one request
+     * @return a future completed when the batch containing the delta is published, or completed exceptionally
+     * if the publisher is closed
+     */
+    public CompletableFuture<Void> submit(Map<String, Integer> wordCount) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean full;
+        synchronized (lock) {
+            // no timer flushes the batch once closed, so the future would never complete
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("the batch publisher is closed"));
+                return future;
+            }
+            for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            waiting.add(future);
+            full = pending.size() >= maxWords;
+        }
+        // the thread that fills the batch publishes it instead of waiting for the timer
+        if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Publish the current batch if it is not empty and release the requests waiting on it.
+     */
+    public void flush() {
+        HashMap<String, Integer> batch;
+        List<CompletableFuture<Void>> released;
+        synchronized (lock) {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            released = waiting;
+            pending = new HashMap<>();
+            waiting = new ArrayList<>();
+        }
+
+        try {
+            publisher.publish(batch);
+            for (CompletableFuture<Void> future : released) {
+                future.complete(null);
+            }
+        } catch (Exception e) {
+            System.err.println("fail to publish the batch of word count");
+            for (CompletableFuture<Void> future : released) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stop the timer and publish what is left, the deltas submitted afterwards are rejected.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,283 @@
+package service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import model.PartitionTopology;
+import model.WordDictionary;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.pool2.ObjectPool;
+import statistic.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class publishes messages to a queue through a channel pool. In confirm mode every channel gets a
+ * {@link ConfirmTracker} on first use, so publishing stays asynchronous while the broker confirms are tracked,
+ * and the tracker is dropped once the channel is closed. The publishes a closed channel leaves unconfirmed are
+ * published again on another channel of the pool by a thread of the publisher, as the caller is already answered.
+ * It is a thread-safe class.
+ */
+public class ChannelPublisher implements WordCountTransport {
+
+    private static final AMQP.BasicProperties BINARY = new AMQP.BasicProperties.Builder()
+            .contentType(WordCountCodec.CONTENT_TYPE).build();
+    private static final AMQP.BasicProperties LEGACY = new AMQP.BasicProperties.Builder()
+            .contentType(WordCountCodec.LEGACY_CONTENT_TYPE).build();
+
+    private final ObjectPool<Channel> channelObjectPool;
+    private final String queueName;
+    private final boolean confirms;
+    private final int maxUnconfirmed;
+    private final int maxRetries;
+    private final boolean binary;
+    private final WordDictionary dictionary;
+    private int compressThreshold;
+    private int compressLevel;
+    private int partitions;
+    // the size of the encoded messages and their size on the wire after compression
+    private final AtomicLong messageBytes = Metrics.counter("message_bytes");
+    private final AtomicLong wireBytes = Metrics.counter("message_wire_bytes");
+    private final Map<Channel, ConfirmTracker> trackers = new ConcurrentHashMap<>();
+    // publishes again the messages left unconfirmed by the closed channels, null without confirms
+    private final ExecutorService republisher;
+
+    /**
+     * Create a fire-and-forget publisher.
+     * @param channelObjectPool the channels pool
+     * @param queueName the target queue
+     */
+    public ChannelPublisher(ObjectPool<Channel> channelObjectPool, String queueName) {
+        this(channelObjectPool, queueName, false, 0, 0);
+    }
+
+    /**
+     * Create a publisher.
+     * @param channelObjectPool the channels pool
+     * @param queueName the target queue
+     * @param confirms true to use publisher confirms
+     * @param maxUnconfirmed the max number of unconfirmed publishes per channel
+     * @param maxRetries the max number of times a nacked message is published again
+     */
+    public ChannelPublisher(ObjectPool<Channel> channelObjectPool, String queueName,
+                            boolean confirms, int maxUnconfirmed, int maxRetries) {
+        this(channelObjectPool, queueName, confirms, maxUnconfirmed, maxRetries, false);
+    }
+
+    /**
+     * Create a publisher choosing the wire format of the word-count messages.
+     * @param channelObjectPool the channels pool
+     * @param queueName the target queue
+     * @param confirms true to use publisher confirms
+     * @param maxUnconfirmed the max number of unconfirmed publishes per channel
+     * @param maxRetries the max number of times a nacked message is published again
+     * @param binary true to encode the word-count with {@link WordCountCodec}, false for java serialization
+     */
+    public ChannelPublisher(ObjectPool<Channel> channelObjectPool, String queueName,
+                            boolean confirms, int maxUnconfirmed, int maxRetries, boolean binary) {
+        this(channelObjectPool, queueName, confirms, maxUnconfirmed, maxRetries, binary, null);
+    }
+
+    /**
+     * Create a publisher sending the words as ids of a shared dictionary in the binary format.
+     * @param channelObjectPool the channels pool
+     * @param queueName the target queue
+     * @param confirms true to use publisher confirms
+     * @param maxUnconfirmed the max number of unconfirmed publishes per channel
+     * @param maxRetries the max number of times a nacked message is published again
+     * @param binary true to encode the word-count with {@link WordCountCodec}, false for java serialization
+     * @param dictionary the shared dictionary of word ids, may be null to send the words inline
+     */
+    public ChannelPublisher(ObjectPool<Channel> channelObjectPool, String queueName, boolean confirms,
+                            int maxUnconfirmed, int maxRetries, boolean binary, WordDictionary dictionary) {
+        this.channelObjectPool = channelObjectPool;
+        this.queueName = queueName;
+        this.confirms = confirms;
+        this.maxUnconfirmed = maxUnconfirmed;
+        this.maxRetries = maxRetries;
+        this.binary = binary;
+        this.dictionary = dictionary;
+        this.republisher = !confirms ? null : Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "confirm-republish");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Encode a word-count map in the wire format of this publisher and publish it to the queue. With partitions
+     * the map is split by the hash of the words and every sub-map is published to its partition.
+     * @param wordCount the word-count map
+     */
+    @Override
+    public void publish(HashMap<String, Integer> wordCount) throws Exception {
+        if (partitions <= 0) {
+            publish("", queueName, wordCount);
+            return;
+        }
+        List<HashMap<String, Integer>> slices = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            slices.add(new HashMap<String, Integer>());
+        }
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            slices.get(PartitionTopology.partitionOf(entry.getKey(), partitions)).put(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < partitions; i++) {
+            if (!slices.get(i).isEmpty()) {
+                publish(PartitionTopology.exchange(queueName), "" + i, slices.get(i));
+            }
+        }
+    }
+
+    /**
+     * Publish the word-count messages to partitioned queues, it must be set before publishing.
+     * @param partitions the number of partitions, 0 to publish to the single queue
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    private void publish(String exchange, String routingKey, HashMap<String, Integer> wordCount) throws Exception {
+        WordCountCodec codec = WordCountCodec.get();
+        byte[] body;
+        AMQP.BasicProperties props;
+        if (binary && dictionary != null) {
+            body = codec.encode(wordCount, dictionary);
+            props = BINARY;
+        } else if (binary) {
+            body = codec.encode(wordCount);
+            props = BINARY;
+        } else {
+            body = SerializationUtils.serialize(wordCount);
+            props = LEGACY;
+        }
+        messageBytes.addAndGet(body.length);
+        if (compressThreshold > 0 && body.length >= compressThreshold) {
+            body = codec.compress(body, compressLevel);
+            props = props.builder().contentEncoding(WordCountCodec.DEFLATE).build();
+        }
+        wireBytes.addAndGet(body.length);
+        send(exchange, routingKey, body, props);
+    }
+
+    /**
+     * Compress the word-count messages from a size on, it must be set before publishing.
+     * @param threshold the message size in bytes from which a message is compressed, 0 to never compress
+     * @param level the deflate level, from 1 for speed to 9 for size
+     */
+    public void setCompression(int threshold, int level) {
+        this.compressThreshold = threshold;
+        this.compressLevel = level;
+    }
+
+    /**
+     * Publish a message body to the queue.
+     * @param body the message body
+     */
+    public void publish(byte[] body) throws Exception {
+        publish(body, null);
+    }
+
+    /**
+     * Publish a message body with its properties to the queue.
+     * @param body the message body
+     * @param props the message properties, may be null
+     */
+    public void publish(byte[] body, AMQP.BasicProperties props) throws Exception {
+        send("", queueName, body, props);
+    }
+
+    /**
+     * Stop publishing again the messages left unconfirmed by the closed channels.
+     */
+    @Override
+    public void close() {
+        if (republisher != null) {
+            republisher.shutdown();
+        }
+    }
+
+    private void send(String exchange, String routingKey, byte[] body, AMQP.BasicProperties props)
+            throws Exception {
+        send(exchange, routingKey, body, props, 0);
+    }
+
+    private void send(String exchange, String routingKey, byte[] body, AMQP.BasicProperties props, int attempt)
+            throws Exception {
+        Channel channel = channelObjectPool.borrowObject();
+        boolean broken = false;
+        try {
+            if (confirms) {
+                tracker(channel).publish(exchange, routingKey, props, body, attempt);
+            } else {
+                channel.basicPublish(exchange, routingKey, props, body);
+            }
+        } catch (IOException | ShutdownSignalException e) {
+            // the channel is broken, let the pool replace it
+            broken = true;
+            trackers.remove(channel);
+            try {
+                channelObjectPool.invalidateObject(channel);
+            } catch (Exception invalidation) {
+                e.addSuppressed(invalidation);
+            }
+            throw e;
+        } finally {
+            if (!broken) {
+                // return the channel to the pool, a failure to replace it does not fail the publish
+                try {
+                    channelObjectPool.returnObject(channel);
+                } catch (Exception e) {
+                    System.err.println("fail to return the rabbitmq channel: " + e);
+                    Metrics.counter("channel_return_failed").incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private ConfirmTracker tracker(Channel channel) throws Exception {
+        ConfirmTracker tracker = trackers.get(channel);
+        if (tracker == null) {
+            // the channel is borrowed exclusively, so no other thread creates its tracker meanwhile
+            tracker = new ConfirmTracker(channel, maxUnconfirmed, maxRetries, this::republish);
+            trackers.put(channel, tracker);
+            // the pool closes the channels it replaces, so their trackers go with them
+            ConfirmTracker closed = tracker;
+            channel.addShutdownListener(new ShutdownListener() {
+                @Override
+                public void shutdownCompleted(ShutdownSignalException cause) {
+                    trackers.remove(channel, closed);
+                    // a recovered channel gets a tracker of its own
+                    channel.removeShutdownListener(this);
+                }
+            });
+        }
+        return tracker;
+    }
+
+    private void republish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body,
+                           int attempt) {
+        try {
+            republisher.execute(() -> {
+                try {
+                    send(exchange, routingKey, body, props, attempt);
+                } catch (Exception e) {
+                    System.err.println("fail to publish the unconfirmed message again");
+                    Metrics.counter("confirm_dropped").incrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            // the publisher is closed
+            Metrics.counter("confirm_dropped").incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import statistic.LatencyHistogram;
+import statistic.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class tracks the publisher confirms of a single channel. Outstanding publishes are kept in a sorted map
+ * by delivery tag so that multiple acks can clear a whole range, nacked messages are published again and the
+ * number of unconfirmed publishes is bounded so a slow broker pushes back on the publishers. Once the channel is
+ * closed its outstanding publishes are never confirmed, so they are handed to a {@link Republisher} to be published
+ * again on another channel, their permits are released and the tracker stops listening to the channel, which a
+ * recovered channel would otherwise keep calling. It is a thread-safe class.
+ */
+public class ConfirmTracker implements ConfirmListener {
+
+    /**
+     * The publisher of the messages left unconfirmed by a closed channel.
+     */
+    public interface Republisher {
+        /**
+         * Publish a message again on another channel. It is called by the thread closing the channel, so it must
+         * not block.
+         * @param exchange the exchange
+         * @param routingKey the routing key
+         * @param props the message properties
+         * @param body the message body
+         * @param attempt the number of times the message was already published again
+         */
+        void republish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body, int attempt);
+    }
+
+    private final Channel channel;
+    private final int maxRetries;
+    private final Republisher republisher;
+    private final ShutdownListener shutdownListener = this::abandon;
+    private final Semaphore permits;
+    private final ConcurrentNavigableMap<Long, Outstanding> outstanding = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram latency = Metrics.histogram("confirm_latency");
+
+    /**
+     * Put the channel in confirm mode and listen to its confirms.
+     * @param channel the channel to track
+     * @param maxUnconfirmed the max number of unconfirmed publishes
+     * @param maxRetries the max number of times a nacked or abandoned message is published again
+     * @param republisher the publisher of the messages left unconfirmed by the closed channel, may be null to
+     *                    drop them
+     * @throws IOException if fail to select the confirm mode
+     */
+    public ConfirmTracker(Channel channel, int maxUnconfirmed, int maxRetries, Republisher republisher)
+            throws IOException {
+        this.channel = channel;
+        this.maxRetries = maxRetries;
+        this.republisher = republisher;
+        this.permits = new Semaphore(maxUnconfirmed);
+        channel.confirmSelect();
+        channel.addConfirmListener(this);
+        channel.addShutdownListener(shutdownListener);
+    }
+
+    /**
+     * Publish a message and track it until the broker confirms it.
+     * It blocks while the channel already has the max number of unconfirmed publishes.
+     * @param exchange the exchange
+     * @param routingKey the routing key
+     * @param props the message properties
+     * @param body the message body
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException, InterruptedException {
+        publish(exchange, routingKey, props, body, 0);
+    }
+
+    /**
+     * Publish a message already published a number of times, and track it until the broker confirms it.
+     * It blocks while the channel already has the max number of unconfirmed publishes.
+     * @param exchange the exchange
+     * @param routingKey the routing key
+     * @param props the message properties
+     * @param body the message body
+     * @param attempt the number of times the message was already published again
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body, int attempt)
+            throws IOException, InterruptedException {
+        permits.acquire();
+        try {
+            send(new Outstanding(exchange, routingKey, props, body, attempt));
+        } catch (IOException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        List<Outstanding> confirmed = remove(deliveryTag, multiple);
+        long now = System.nanoTime();
+        for (Outstanding message : confirmed) {
+            latency.record(now - message.start);
+        }
+        Metrics.counter("confirm_ack").addAndGet(confirmed.size());
+        permits.release(confirmed.size());
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        List<Outstanding> rejected = remove(deliveryTag, multiple);
+        Metrics.counter("confirm_nack").addAndGet(rejected.size());
+        for (Outstanding message : rejected) {
+            // a retried message keeps its permit until it is finally confirmed or dropped
+            if (message.attempt < maxRetries) {
+                try {
+                    Metrics.counter("confirm_retry").incrementAndGet();
+                    send(new Outstanding(message.exchange, message.routingKey, message.props, message.body,
+                            message.attempt + 1));
+                    continue;
+                } catch (IOException e) {
+                    System.err.println("fail to publish the nacked message again");
+                }
+            }
+            Metrics.counter("confirm_dropped").incrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * Get the number of publishes waiting for a confirm.
+     * @return the number of outstanding publishes
+     */
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * Hand the publishes of a closed channel to the republisher and release their permits, so no publisher waits
+     * on them, and stop listening to the channel.
+     */
+    private void abandon(ShutdownSignalException cause) {
+        channel.removeConfirmListener(this);
+        channel.removeShutdownListener(shutdownListener);
+        List<Outstanding> abandoned = remove(Long.MAX_VALUE, true);
+        permits.release(abandoned.size());
+        for (Outstanding message : abandoned) {
+            if (republisher != null && message.attempt < maxRetries) {
+                Metrics.counter("confirm_republish").incrementAndGet();
+                republisher.republish(message.exchange, message.routingKey, message.props, message.body,
+                        message.attempt + 1);
+            } else {
+                Metrics.counter("confirm_dropped").incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Take the sequence number and publish atomically, as the channel is shared with the retries.
+     */
+    private synchronized void send(Outstanding message) throws IOException {
+        long seqNo = channel.getNextPublishSeqNo();
+        outstanding.put(seqNo, message);
+        try {
+            channel.basicPublish(message.exchange, message.routingKey, message.props, message.body);
+        } catch (IOException e) {
+            outstanding.remove(seqNo);
+            throw e;
+        }
+    }
+
+    private List<Outstanding> remove(long deliveryTag, boolean multiple) {
+        List<Outstanding> removed = new ArrayList<>();
+        if (multiple) {
+            Map<Long, Outstanding> head = outstanding.headMap(deliveryTag, true);
+            removed.addAll(head.values());
+            head.clear();
+        } else {
+            Outstanding message = outstanding.remove(deliveryTag);
+            if (message != null) {
+                removed.add(message);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * A published message waiting for its confirm.
+     */
+    private static class Outstanding {
+        private final String exchange;
+        private final String routingKey;
+        private final AMQP.BasicProperties props;
+        private final byte[] body;
+        private final int attempt;
+        private final long start = System.nanoTime();
+
+        private Outstanding(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body,
+                            int attempt) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+            this.attempt = attempt;
+        }
+    }
+}
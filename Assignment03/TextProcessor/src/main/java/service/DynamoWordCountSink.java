@@ -0,0 +1,59 @@
+package service;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import model.WordCount;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A sink storing the word-count in Dynamo the way the consumer handlers do, one item per word and count,
+ * for the in-process transport. A batch is merged first so every word is written once per batch. The id of an item
+ * is derived from the batch id and its word, so a batch stored again overwrites the items already written instead
+ * of adding them twice, and a batch with failed writes is reported so the transport stores it again.
+ * It is a thread-safe class.
+ */
+public class DynamoWordCountSink implements WordCountSink {
+
+    private final DynamoDBMapper mapper;
+
+    /**
+     * Create a sink over the word-count table.
+     * @param mapper the dynamo db mapper
+     */
+    public DynamoWordCountSink(DynamoDBMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void store(String batchId, List<HashMap<String, Integer>> batch) {
+        HashMap<String, Integer> merged = new HashMap<>();
+        for (HashMap<String, Integer> wordCount : batch) {
+            for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+        List<WordCount> list = new ArrayList<WordCount>(merged.size());
+        for (Map.Entry<String, Integer> entry : merged.entrySet()) {
+            if (entry.getKey().isEmpty()) {
+                continue;
+            }
+            WordCount item = new WordCount();
+            item.setId(UUID.nameUUIDFromBytes((batchId + '\n' + entry.getKey()).getBytes(StandardCharsets.UTF_8))
+                    .toString());
+            item.setWord(entry.getKey());
+            item.setCount(entry.getValue());
+            list.add(item);
+        }
+        List<DynamoDBMapper.FailedBatch> failed = mapper.batchSave(list);
+        if (!failed.isEmpty()) {
+            // the transport stores the batch again
+            throw new IllegalStateException("fail to store " + failed.size() + " batches of word count",
+                    failed.get(0).getException());
+        }
+    }
+}
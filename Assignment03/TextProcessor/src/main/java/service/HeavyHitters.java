@@ -0,0 +1,139 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An incrementally maintained heavy-hitters summary using the Space-Saving algorithm. It keeps at most
+ * capacity words in an indexed min-heap by count; a new word replaces the smallest one and inherits its count
+ * as the error bound. Any word whose frequency is above total / capacity is guaranteed to be kept, so the top-K
+ * can be read without scanning the table. It is a thread-safe class.
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+    private final String[] words;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> index = new HashMap<>();
+    private int size;
+
+    /**
+     * Create an empty summary.
+     * @param capacity the number of words tracked
+     */
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.words = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+    }
+
+    /**
+     * Add the counts of a word-count map.
+     * @param wordCount the word-count map
+     */
+    public synchronized void offerAll(Map<String, Integer> wordCount) {
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            offer(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Add the count of a word.
+     * @param word the word
+     * @param count the count to add
+     */
+    public synchronized void offer(String word, long count) {
+        Integer pos = index.get(word);
+        if (pos != null) {
+            counts[pos] += count;
+            siftDown(pos);
+        } else if (size < capacity) {
+            words[size] = word;
+            counts[size] = count;
+            errors[size] = 0;
+            index.put(word, size);
+            siftUp(size++);
+        } else {
+            // replace the smallest word, its count becomes the over-estimation of the new one
+            index.remove(words[0]);
+            errors[0] = counts[0];
+            counts[0] += count;
+            words[0] = word;
+            index.put(word, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Get the k most frequent words by their estimated count.
+     * @param k the number of words
+     * @return the words and counts in descending order
+     */
+    public Map<String, Long> top(int k) {
+        List<Integer> positions = new ArrayList<>();
+        String[] snapshotWords;
+        long[] snapshotCounts;
+        synchronized (this) {
+            snapshotWords = Arrays.copyOf(words, size);
+            snapshotCounts = Arrays.copyOf(counts, size);
+        }
+        for (int i = 0; i < snapshotWords.length; i++) {
+            positions.add(i);
+        }
+        positions.sort(Comparator.comparingLong((Integer i) -> snapshotCounts[i]).reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(k, positions.size()); i++) {
+            int pos = positions.get(i);
+            top.put(snapshotWords[pos], snapshotCounts[pos]);
+        }
+        return top;
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >> 1;
+            if (counts[parent] <= counts[pos]) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int left = (pos << 1) + 1;
+            if (left >= size) {
+                break;
+            }
+            int right = left + 1;
+            int smallest = right < size && counts[right] < counts[left] ? right : left;
+            if (counts[pos] <= counts[smallest]) {
+                break;
+            }
+            swap(pos, smallest);
+            pos = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String word = words[i];
+        words[i] = words[j];
+        words[j] = word;
+        long count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+        long error = errors[i];
+        errors[i] = errors[j];
+        errors[j] = error;
+        index.put(words[i], i);
+        index.put(words[j], j);
+    }
+}
@@ -0,0 +1,147 @@
+package service;
+
+import model.WordCounterTable;
+import statistic.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transport within the process for single-node deployments, which hands the word-count maps by reference to
+ * consumer threads through a lock-free {@link RingBuffer}, so there is neither a network hop nor serialization.
+ * The consumers drain the buffer in batches into a {@link WordCountSink}. A full buffer makes the publishers wait,
+ * and an empty one makes the consumers spin a little before they park. A batch the sink fails to store is retried
+ * with a jittered backoff by its consumer until it is stored, and so holds back the batches after it, since the
+ * publishers have already been answered; once the transport is closed a batch is only retried a few times before
+ * it is dropped and counted. It is a thread-safe class.
+ */
+public class InProcessTransport implements WordCountTransport {
+
+    // the number of empty polls a consumer spins before it parks
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // the number of attempts to store a batch once the transport is closed
+    private static final int CLOSED_ATTEMPTS = 3;
+
+    private final RingBuffer<HashMap<String, Integer>> ring;
+    private final WordCountSink sink;
+    private final int batchSize;
+    private final List<Thread> consumers = new ArrayList<>();
+    private final AtomicLong fullWaits = Metrics.counter("inprocess_full_wait");
+    private final AtomicLong batches = Metrics.counter("inprocess_batch");
+    private final AtomicLong storeFailures = Metrics.counter("inprocess_store_failed");
+    private final AtomicLong dropped = Metrics.counter("inprocess_batch_dropped");
+    private volatile boolean running = true;
+
+    /**
+     * Create a transport and start its consumers.
+     * @param capacity the number of word-count maps the buffer holds
+     * @param consumerThreads the number of consumer threads
+     * @param batchSize the max number of word-count maps stored in one batch
+     * @param sink the sink storing the batches
+     */
+    public InProcessTransport(int capacity, int consumerThreads, int batchSize, WordCountSink sink) {
+        this.ring = new RingBuffer<>(capacity);
+        this.sink = sink;
+        this.batchSize = batchSize;
+        Metrics.gauge("inprocess_depth", ring::size);
+        for (int i = 0; i < consumerThreads; i++) {
+            Thread thread = new Thread(this::consume, "inprocess-consumer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            consumers.add(thread);
+        }
+    }
+
+    @Override
+    public void publish(HashMap<String, Integer> wordCount) throws Exception {
+        while (!ring.offer(wordCount)) {
+            if (!running) {
+                throw new IllegalStateException("the transport is closed");
+            }
+            fullWaits.incrementAndGet();
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Get the number of word-count maps waiting for a consumer.
+     * @return the depth of the buffer
+     */
+    public long getDepth() {
+        return ring.size();
+    }
+
+    /**
+     * Stop the consumers once the buffer is drained.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread thread : consumers) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void consume() {
+        List<HashMap<String, Integer>> batch = new ArrayList<>(batchSize);
+        int idle = 0;
+        while (running || ring.size() > 0) {
+            if (ring.drainTo(batch, batchSize) == 0) {
+                if (++idle < SPINS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                continue;
+            }
+            idle = 0;
+            if (!store(UUID.randomUUID().toString(), batch)) {
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Store a batch, retrying it with a backoff until it is stored or, once the transport is closed, until the
+     * attempts run out.
+     * @param batchId the id of the batch, kept by its retries
+     * @param batch the batch
+     * @return false if the consumer is interrupted and vice versa
+     */
+    private boolean store(String batchId, List<HashMap<String, Integer>> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sink.store(batchId, batch);
+                batches.incrementAndGet();
+                return true;
+            } catch (Exception e) {
+                storeFailures.incrementAndGet();
+                if (!running && attempt >= CLOSED_ATTEMPTS) {
+                    dropped.incrementAndGet();
+                    System.err.println("fail to store the batch of word count, drop it: " + e);
+                    return true;
+                }
+                System.err.println("fail to store the batch of word count, retry it: " + e);
+            }
+            try {
+                Thread.sleep(WordCounterTable.backoff(attempt));
+            } catch (InterruptedException e) {
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A word counter for large bodies. A body above the threshold is split at whitespace boundaries into chunks,
+ * each chunk is counted by a {@link WordCounter} in a fork/join task and the partial maps are merged.
+ * Smaller bodies are counted on the calling thread, where the fork/join overhead would not pay off.
+ * It is a thread-safe class.
+ */
+public class ParallelWordCounter {
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int chunkSize;
+
+    /**
+     * Create a parallel word counter.
+     * @param pool the fork/join pool running the chunks
+     * @param threshold the body length in chars above which the body is counted in parallel
+     * @param chunkSize the max length of a chunk counted by a single task
+     */
+    public ParallelWordCounter(ForkJoinPool pool, int threshold, int chunkSize) {
+        this.pool = pool;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Count the words of a range of a char buffer.
+     * @param chars the buffer holding the text
+     * @param offset the start of the text
+     * @param length the length of the text
+     * @return the word-count map
+     */
+    public HashMap<String, Integer> countWords(char[] chars, int offset, int length) {
+        if (length < threshold) {
+            return WordCountService.countWords(chars, offset, length);
+        }
+        return pool.invoke(new CountTask(chars, offset, offset + length));
+    }
+
+    /**
+     * Shut the pool down.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * A task counting the words of the range [start, end), which it splits in two while it is too large.
+     */
+    private class CountTask extends RecursiveTask<HashMap<String, Integer>> {
+        private final char[] chars;
+        private final int start;
+        private final int end;
+
+        private CountTask(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected HashMap<String, Integer> compute() {
+            int mid = split();
+            if (end - start <= chunkSize || mid == end) {
+                return WordCountService.countWords(chars, start, end - start);
+            }
+            CountTask left = new CountTask(chars, start, mid);
+            CountTask right = new CountTask(chars, mid, end);
+            left.fork();
+            HashMap<String, Integer> result = right.compute();
+            // merge the smaller map into the larger one
+            HashMap<String, Integer> other = left.join();
+            if (other.size() > result.size()) {
+                HashMap<String, Integer> swap = result;
+                result = other;
+                other = swap;
+            }
+            for (Map.Entry<String, Integer> entry : other.entrySet()) {
+                result.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            return result;
+        }
+
+        /**
+         * Find the first whitespace from the middle, so that no word is cut in two.
+         */
+        private int split() {
+            int mid = start + (end - start) / 2;
+            while (mid < end && !WordCountService.isWhitespace(chars[mid])) {
+                mid++;
+            }
+            return mid;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package service;
+
+/**
+ * This exception is thrown when a text stream fails part way, after some of its word-count has already been
+ * published. The client resumes the upload from the committed offset, so the published words are not counted twice.
+ */
+public class PartialStreamException extends Exception {
+
+    private final long committedChars;
+
+    /**
+     * Create the exception of a failed stream.
+     * @param committedChars the number of decoded chars whose words are published
+     * @param cause the failure
+     */
+    public PartialStreamException(long committedChars, Throwable cause) {
+        super("the text stream failed after " + committedChars + " chars", cause);
+        this.committedChars = committedChars;
+    }
+
+    /**
+     * Get the offset from which the stream must be sent again.
+     * @return the number of decoded chars whose words are published
+     */
+    public long getCommittedChars() {
+        return committedChars;
+    }
+}
@@ -0,0 +1,124 @@
+package service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free bounded multi-producer multi-consumer ring buffer. Every slot has a sequence number telling whether
+ * it is free for the producer of a position or filled for its consumer, so producers and consumers only race on a
+ * compare-and-set of the tail and the head, never on a lock. The capacity is rounded up to a power of two.
+ * It is a thread-safe class.
+ * @param <E> the type of the elements
+ */
+public class RingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<E> elements;
+    // the next position to fill and the next position to take
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Create an empty ring buffer.
+     * @param capacity the min number of elements it holds
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.elements = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element if the buffer is not full.
+     * @param element the element
+     * @return true if it is added, false if the buffer is full
+     */
+    public boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // publish the slot to its consumer
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                // the slot still holds the element of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest element.
+     * @return the element, null if the buffer is empty
+     */
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    // free the slot for the producer of the next lap
+                    sequences.lazySet(index, position + capacity);
+                    return element;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Take up to a number of elements.
+     * @param batch the list the elements are added to
+     * @param max the max number of elements taken
+     * @return the number of elements taken
+     */
+    public int drainTo(List<E> batch, int max) {
+        int taken = 0;
+        E element;
+        while (taken < max && (element = poll()) != null) {
+            batch.add(element);
+            taken++;
+        }
+        return taken;
+    }
+
+    /**
+     * Get the number of elements, which may be stale as soon as it is read.
+     * @return the size
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Get the number of elements it holds.
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+}
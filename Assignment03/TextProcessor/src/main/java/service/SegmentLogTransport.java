@@ -0,0 +1,212 @@
+package service;
+
+import model.SegmentLog;
+import model.WordDictionary;
+import statistic.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A transport appending the word-count messages to a memory-mapped log of fixed size segments on local disk, which
+ * the consumers on the same host tail from their own durable offsets, see {@link SegmentLog}. A single process
+ * writes the log, which is enforced by a file lock, and appends are serialized so a segment has a single writer.
+ * The mapped segment is forced to disk periodically, and the segments older than the retention are deleted once
+ * every reader committed an offset past them, so a lagging consumer never loses a record it has not read. A writer
+ * restarted on an existing log clears the record a crash left torn and carries on after its last complete record.
+ * It is a thread-safe class.
+ */
+public class SegmentLogTransport implements WordCountTransport {
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long retentionMillis;
+    private final WordDictionary dictionary;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService scheduler;
+    private final CRC32 crc = new CRC32();
+    private final AtomicLong appended = Metrics.counter("log_append");
+    private final AtomicLong rolled = Metrics.counter("log_roll");
+
+    private long index;
+    private MappedByteBuffer segment;
+
+    /**
+     * Open the log for writing, creating it if it does not exist.
+     * @param dir the log directory
+     * @param segmentSize the size of a segment in bytes
+     * @param flushIntervalMillis the interval between two forces of the segment to disk
+     * @param retentionMillis the age from which a segment read by all the readers is deleted
+     * @param dictionary the shared dictionary of word ids, may be null to write the words inline
+     */
+    public SegmentLogTransport(Path dir, int segmentSize, long flushIntervalMillis, long retentionMillis,
+                               WordDictionary dictionary) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.retentionMillis = retentionMillis;
+        this.dictionary = dictionary;
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve("writer.lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("the log is written by another process");
+        }
+        List<Long> segments = SegmentLog.segments(dir);
+        open(segments.isEmpty() ? 0 : segments.get(segments.size() - 1));
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::deleteExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void publish(HashMap<String, Integer> wordCount) throws Exception {
+        WordCountCodec codec = WordCountCodec.get();
+        append(dictionary == null ? codec.encode(wordCount) : codec.encode(wordCount, dictionary));
+    }
+
+    /**
+     * Append a message to the log, moving to the next segment when it does not fit.
+     * @param body the message bytes
+     */
+    public synchronized void append(byte[] body) throws IOException {
+        // a segment always keeps room for the end marker
+        if (SegmentLog.next(segment.position(), body.length) + 4 > segmentSize) {
+            roll();
+            if (SegmentLog.next(0, body.length) + 4 > segmentSize) {
+                throw new IOException("the message is larger than a segment");
+            }
+        }
+        int position = segment.position();
+        segment.position(position + SegmentLog.HEADER);
+        segment.put(body);
+        crc.reset();
+        crc.update(body);
+        segment.putInt(position + 4, (int) crc.getValue());
+        // the length commits the record to the readers
+        segment.putInt(position, body.length);
+        segment.position(SegmentLog.next(position, body.length));
+        appended.incrementAndGet();
+    }
+
+    /**
+     * Force the written records to disk, stop the background tasks and release the log.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flush();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("fail to release the log");
+        }
+    }
+
+    private void roll() throws IOException {
+        segment.putInt(segment.position(), SegmentLog.END);
+        segment.force();
+        open(index + 1);
+        rolled.incrementAndGet();
+    }
+
+    /**
+     * Map a segment and find the end of its complete records.
+     */
+    private void open(long segmentIndex) throws IOException {
+        this.index = segmentIndex;
+        this.segment = SegmentLog.map(SegmentLog.segment(dir, segmentIndex), segmentSize, true);
+        int position = 0;
+        while (position + 4 <= segmentSize) {
+            int length = segment.getInt(position);
+            if (length == SegmentLog.END) {
+                // the segment was closed before a restart
+                open(segmentIndex + 1);
+                return;
+            }
+            if (length <= 0 || SegmentLog.next(position, length) > segmentSize || !isComplete(position, length)) {
+                // clear what a crash left of the last record, nothing was written after it
+                clear(position);
+                break;
+            }
+            position = SegmentLog.next(position, length);
+        }
+        segment.position(position);
+    }
+
+    /**
+     * Zero the bytes of a torn record. Its length may be missing, as it is written last, so the record ends at the
+     * last non-zero word of the segment, and the untouched pages after it are only read.
+     */
+    private void clear(int from) {
+        int end = from;
+        for (int position = from; position + 4 <= segmentSize; position += 4) {
+            if (segment.getInt(position) != 0) {
+                end = position + 4;
+            }
+        }
+        ByteBuffer view = segment.duplicate();
+        view.position(from);
+        view.put(new byte[end - from]);
+    }
+
+    private boolean isComplete(int position, int length) {
+        byte[] body = new byte[length];
+        ByteBuffer view = segment.duplicate();
+        view.position(position + SegmentLog.HEADER);
+        view.get(body);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == segment.getInt(position + 4);
+    }
+
+    private void flush() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = segment;
+        }
+        current.force();
+    }
+
+    private void deleteExpired() {
+        long expiry = System.currentTimeMillis() - retentionMillis;
+        try {
+            long current;
+            synchronized (this) {
+                current = index;
+            }
+            // a segment is kept until the slowest reader moved past it, and forever while there is no reader
+            long committed = SegmentLog.committed(dir);
+            for (long old : SegmentLog.segments(dir)) {
+                Path file = SegmentLog.segment(dir, old);
+                if (old < current && old < committed && Files.getLastModifiedTime(file).toMillis() < expiry) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("fail to delete the expired segments");
+        }
+    }
+}
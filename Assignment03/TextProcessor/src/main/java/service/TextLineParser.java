@@ -0,0 +1,373 @@
+package service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A streaming parser for the TextLine json body. It decodes the "message" field straight from the request
+ * input stream into a reusable char buffer, so no intermediate String is created for the body or the message.
+ * Only whitespace may follow the json value. The buffer grows with the message, and a buffer grown beyond the
+ * retained size is dropped by {@link #release()} so a single huge body does not stay pinned on the thread.
+ * An instance is not thread-safe, use {@link #get()} to take the parser bound to the current thread.
+ */
+public class TextLineParser {
+
+    private static final String MESSAGE = "message";
+    private static final ThreadLocal<TextLineParser> PARSERS = ThreadLocal.withInitial(TextLineParser::new);
+    private static final int DEFAULT_CHARS = 1024;
+    // the max size of the buffer kept between two bodies
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private final byte[] bytes = new byte[8192];
+    private char[] chars = new char[DEFAULT_CHARS];
+    private int length;
+    private InputStream in;
+    private int pos;
+    private int limit;
+
+    /**
+     * Get the parser bound to the current thread.
+     * @return the thread local parser
+     */
+    public static TextLineParser get() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Parse a TextLine json object from the stream and keep its message in the buffer.
+     * @param in the input stream of the json body
+     * @return true if a string message is found and only whitespace follows the object, and vice versa
+     * @throws IOException if fail to read the stream
+     */
+    public boolean parse(InputStream in) throws IOException {
+        reset(in);
+        try {
+            return parseObject(nextToken()) && nextToken() == -1;
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /**
+     * Parse a batch of text lines from the stream, either a json array or newline delimited json.
+     * The elements are TextLine objects or plain strings, and their messages are kept in the buffer
+     * separated by a newline so that words of adjacent lines are never merged.
+     * @param in the input stream of the batch body
+     * @return the number of lines parsed or -1 if the body is malformed
+     * @throws IOException if fail to read the stream
+     */
+    public int parseBatch(InputStream in) throws IOException {
+        reset(in);
+        try {
+            int c = nextToken();
+            boolean array = c == '[';
+            if (array) {
+                c = nextToken();
+                if (c == ']') {
+                    return nextToken() == -1 ? 0 : -1;
+                }
+            }
+            int lines = 0;
+            while (c != -1) {
+                if (lines > 0) {
+                    append('\n');
+                }
+                if (!parseElement(c)) {
+                    return -1;
+                }
+                lines++;
+                c = nextToken();
+                if (array) {
+                    if (c == ']') {
+                        return nextToken() == -1 ? lines : -1;
+                    }
+                    if (c != ',') {
+                        return -1;
+                    }
+                    c = nextToken();
+                } else if (c == ',') {
+                    return -1;
+                }
+            }
+            // an array must be closed while ndjson ends with the stream
+            return array ? -1 : lines;
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /**
+     * Get the buffer holding the message, only the first {@link #length()} chars are valid.
+     * @return the message chars
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    /**
+     * Get the length of the message.
+     * @return the length
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Drop the message once it is consumed, and shrink the buffer back to its default size if the message grew it
+     * beyond the retained size.
+     */
+    public void release() {
+        length = 0;
+        if (chars.length > MAX_RETAINED_CHARS) {
+            chars = new char[DEFAULT_CHARS];
+        }
+    }
+
+    private void reset(InputStream in) {
+        this.in = in;
+        this.pos = 0;
+        this.limit = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Parse a batch element, which is a TextLine object or a string.
+     */
+    private boolean parseElement(int c) throws IOException {
+        if (c == '"') {
+            return readString();
+        }
+        return parseObject(c);
+    }
+
+    /**
+     * Parse a TextLine object whose first char has been consumed and append its message to the buffer.
+     */
+    private boolean parseObject(int first) throws IOException {
+        if (first != '{') {
+            return false;
+        }
+        int messageStart = length;
+        boolean found = false;
+        int c = nextToken();
+        if (c == '}') {
+            return false;
+        }
+        while (true) {
+            if (c != '"') {
+                return false;
+            }
+            // decode the key behind the message and compare it in place
+            int keyStart = length;
+            if (!readString()) {
+                return false;
+            }
+            boolean isMessage = isMessageKey(keyStart);
+            length = keyStart;
+            if (nextToken() != ':') {
+                return false;
+            }
+            c = nextToken();
+            if (isMessage && c == '"') {
+                length = messageStart;
+                if (!readString()) {
+                    return false;
+                }
+                found = true;
+            } else if (!skipValue(c)) {
+                return false;
+            }
+            c = nextToken();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                return false;
+            }
+            c = nextToken();
+        }
+        if (!found) {
+            length = messageStart;
+        }
+        return found;
+    }
+
+    private boolean isMessageKey(int start) {
+        if (length - start != MESSAGE.length()) {
+            return false;
+        }
+        for (int i = 0; i < MESSAGE.length(); i++) {
+            if (chars[start + i] != MESSAGE.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip a json value whose first char has been consumed.
+     */
+    private boolean skipValue(int c) throws IOException {
+        if (c == '"') {
+            int saved = length;
+            boolean ok = readString();
+            length = saved;
+            return ok;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == -1) {
+                    return false;
+                } else if (c == '"') {
+                    if (!skipValue(c)) {
+                        return false;
+                    }
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            return true;
+        }
+        // numbers and literals run until a delimiter
+        if (c == -1 || c == ',' || c == '}' || c == ']') {
+            return false;
+        }
+        while (true) {
+            c = peek();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                return true;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Decode a json string whose opening quote has been consumed and append it to the buffer.
+     */
+    private boolean readString() throws IOException {
+        while (true) {
+            int b = read();
+            if (b == -1) {
+                return false;
+            }
+            if (b == '"') {
+                return true;
+            }
+            if (b == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': append('"'); break;
+                    case '\\': append('\\'); break;
+                    case '/': append('/'); break;
+                    case 'b': append('\b'); break;
+                    case 'f': append('\f'); break;
+                    case 'n': append('\n'); break;
+                    case 'r': append('\r'); break;
+                    case 't': append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                return false;
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        append((char) code);
+                        break;
+                    default:
+                        return false;
+                }
+            } else if (b < 0x80) {
+                append((char) b);
+            } else if (!readMultiByte(b)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Decode a multi-byte UTF-8 sequence whose lead byte has been consumed.
+     */
+    private boolean readMultiByte(int lead) throws IOException {
+        int extra;
+        int code;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            code = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            code = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            code = lead & 0x07;
+        } else {
+            return false;
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = read();
+            if (b == -1 || (b & 0xC0) != 0x80) {
+                return false;
+            }
+            code = (code << 6) | (b & 0x3F);
+        }
+        if (Character.isBmpCodePoint(code)) {
+            append((char) code);
+        } else if (Character.isValidCodePoint(code)) {
+            append(Character.highSurrogate(code));
+            append(Character.lowSurrogate(code));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void append(char c) {
+        if (length == chars.length) {
+            char[] grown = new char[chars.length << 1];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+        chars[length++] = c;
+    }
+
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && isWhitespace(c));
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return bytes[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return bytes[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(bytes, 0, bytes.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+}
@@ -15,6 +15,18 @@ public interface TextProcessor {
      */
     public int apply(String target) throws Exception;
 
+    /**
+     * Apply analysis on a range of a char buffer, so callers holding the text in a reusable buffer
+     * do not need to copy it into a string. The method must be applied after validating the range.
+     * @param chars the buffer holding the target
+     * @param offset the start of the target
+     * @param length the length of the target
+     * @return the result as a integer
+     */
+    public default int apply(char[] chars, int offset, int length) throws Exception {
+        return apply(new String(chars, offset, length));
+    }
+
     /**
      * Validate the string target and
      * return false if the string is not valid for analysis.
@@ -22,4 +34,16 @@ public interface TextProcessor {
      * @return true if the target is valid and vice versa
      */
     public boolean validate(String target);
+
+    /**
+     * Validate a range of a char buffer and
+     * return false if the range is not valid for analysis.
+     * @param chars the buffer holding the target
+     * @param offset the start of the target
+     * @param length the length of the target
+     * @return true if the target is valid and vice versa
+     */
+    public default boolean validate(char[] chars, int offset, int length) {
+        return validate(new String(chars, offset, length));
+    }
 }
@@ -0,0 +1,123 @@
+package service;
+
+import statistic.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded in-process read-through cache of word counts with LRU eviction and a time to live.
+ * Concurrent misses of the same word are coalesced into a single backend load, so a GET storm on a hot word
+ * costs one query. A word waiting for the load of another request waits for a bounded time only.
+ * It is a thread-safe class.
+ */
+public class WordCountCache {
+
+    private final Function<String, Integer> loader;
+    private final long ttlNanos;
+    private final long loadTimeoutMillis;
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<Integer>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = Metrics.counter("cache_hit");
+    private final AtomicLong misses = Metrics.counter("cache_miss");
+
+    /**
+     * Create a cache in front of a loader.
+     * @param loader the backend lookup of a word count
+     * @param maxSize the max number of cached words
+     * @param ttlMillis the time a cached count stays valid
+     * @param loadTimeoutMillis the max time a miss waits for the load of the same word by another request
+     */
+    public WordCountCache(Function<String, Integer> loader, int maxSize, long ttlMillis, long loadTimeoutMillis) {
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.loadTimeoutMillis = loadTimeoutMillis;
+        // an access ordered map evicts the least recently used word
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        Metrics.gauge("cache_hit_ratio", this::getHitRatio);
+    }
+
+    /**
+     * Get the count of a word, loading it from the backend on a miss.
+     * @param word the word
+     * @return the count
+     */
+    public int get(String word) throws Exception {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(word);
+        }
+        if (entry != null && System.nanoTime() - entry.loadedAt < ttlNanos) {
+            hits.incrementAndGet();
+            return entry.count;
+        }
+        misses.incrementAndGet();
+
+        // only the first miss loads the word, the others wait for its result
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        CompletableFuture<Integer> existing = loading.putIfAbsent(word, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            int count = loader.apply(word);
+            synchronized (entries) {
+                entries.put(word, new Entry(count));
+            }
+            future.complete(count);
+            Metrics.counter("cache_load").incrementAndGet();
+            return count;
+        } catch (Throwable e) {
+            // an error completes the load too, so its waiters never hang
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(word, future);
+        }
+    }
+
+    /**
+     * Get the ratio of the lookups served from the cache.
+     * @return the hit ratio
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : 1D * h / total;
+    }
+
+    private int await(CompletableFuture<Integer> future) throws Exception {
+        try {
+            return future.get(loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("the load of the word takes more than " + loadTimeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            // an error thrown by the loader stays wrapped
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * A cached count and the time it was loaded.
+     */
+    private static class Entry {
+        private final int count;
+        private final long loadedAt = System.nanoTime();
+
+        private Entry(int count) {
+            this.count = count;
+        }
+    }
+}
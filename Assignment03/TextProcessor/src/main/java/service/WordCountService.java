@@ -1,47 +1,179 @@
 package service;
 
-import org.apache.commons.lang3.SerializationUtils;
-import org.apache.commons.pool2.ObjectPool;
-
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
-
-import com.rabbitmq.client.Channel;
+import java.util.HashSet;
 
 /**
  * A service class serving as a processor to count the number of words in a Line.
  */
 public class WordCountService implements TextProcessor {
 
-    private ObjectPool<Channel> channelObjectPool;
-    private String queueName;
+    // the initial size of the read buffer of a stream
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    // the max length of a word in a stream, a longer run without whitespace is cut into words of this length
+    private static final int MAX_STREAM_WORD = 1 << 20;
 
+    private final WordCountTransport publisher;
+    private final BatchPublisher batchPublisher;
+    private final HeavyHitters heavyHitters;
+    private final ParallelWordCounter parallelCounter;
 
     /**
-     * Create a WordCountService with a channel pool used to send message to consumers.
-     * @param channelObjectPool the channels pool
+     * Create a WordCountService with a publisher used to send message to consumers, and the optional
+     * collaborators of the publish path.
+     * @param publisher the transport to the consumers
+     * @param batchPublisher the publisher merging the word-count of concurrent requests, may be null
+     * @param heavyHitters the summary of the most frequent words, may be null
+     * @param parallelCounter the counter splitting large bodies over a fork/join pool, may be null
      */
-    public WordCountService(ObjectPool<Channel> channelObjectPool, String queueName) {
-        this.channelObjectPool = channelObjectPool;
-        this.queueName = queueName;
+    public WordCountService(WordCountTransport publisher, BatchPublisher batchPublisher, HeavyHitters heavyHitters,
+                            ParallelWordCounter parallelCounter) {
+        this.publisher = publisher;
+        this.batchPublisher = batchPublisher;
+        this.heavyHitters = heavyHitters;
+        this.parallelCounter = parallelCounter;
     }
 
     @Override
     public int apply(String target) throws Exception {
-        HashMap<String, Integer> wordCount = new HashMap<String, Integer>();
-        String[] words = target.split("\\s+");
-        for (String word : words) {
-            wordCount.put(word, wordCount.getOrDefault(word, 0) + 1);
-        }
+        return apply(target.toCharArray(), 0, target.length());
+    }
 
-        Channel channel = channelObjectPool.borrowObject();
-        channel.basicPublish("", queueName, null, SerializationUtils.serialize(wordCount));
-        // return the channel to the pool
-        channelObjectPool.returnObject(channel);
+    @Override
+    public int apply(char[] chars, int offset, int length) throws Exception {
+        HashMap<String, Integer> wordCount = parallelCounter == null
+                ? countWords(chars, offset, length)
+                : parallelCounter.countWords(chars, offset, length);
+
+        publish(wordCount);
         return wordCount.size();
     }
 
+    /**
+     * Count the words of a text stream incrementally and publish the partial word-count every flushChars chars,
+     * so the memory used is bounded by the distinct words rather than by the document size.
+     * If the stream fails part way, the deltas already published are kept and the exception tells the offset
+     * they cover, so the client resumes from there instead of counting them twice.
+     * @param reader the decoded text stream
+     * @param flushChars the number of chars read between two published deltas
+     * @return the number of distinct words counted
+     * @throws PartialStreamException if the stream fails, with the number of chars already published
+     */
+    public int applyStream(Reader reader, int flushChars) throws PartialStreamException {
+        char[] buffer = new char[STREAM_BUFFER_SIZE];
+        HashMap<String, Integer> delta = new HashMap<String, Integer>();
+        HashSet<String> distinct = new HashSet<String>();
+        WordCounter counter = WordCounter.get();
+        long read = 0;
+        long committed = 0;
+        long unflushed = 0;
+        // the chars of the buffer holding a word cut by the previous read
+        int carry = 0;
+        try {
+            while (true) {
+                if (carry == buffer.length) {
+                    if (buffer.length >= MAX_STREAM_WORD) {
+                        count(counter, buffer, carry, delta);
+                        carry = 0;
+                    } else {
+                        buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    }
+                }
+                int n = reader.read(buffer, carry, buffer.length - carry);
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+                int end = carry + n;
+                // count up to the last whitespace and carry the word it may cut over to the next read
+                int last = end - 1;
+                while (last >= 0 && !isWhitespace(buffer[last])) {
+                    last--;
+                }
+                count(counter, buffer, last + 1, delta);
+                carry = end - last - 1;
+                System.arraycopy(buffer, last + 1, buffer, 0, carry);
+
+                unflushed += n;
+                if (unflushed >= flushChars && !delta.isEmpty()) {
+                    publish(delta);
+                    // the carried word is not published yet
+                    committed = read - carry;
+                    distinct.addAll(delta.keySet());
+                    delta = new HashMap<String, Integer>();
+                    unflushed = 0;
+                }
+            }
+            count(counter, buffer, carry, delta);
+            if (!delta.isEmpty()) {
+                publish(delta);
+                distinct.addAll(delta.keySet());
+            }
+        } catch (Exception e) {
+            throw new PartialStreamException(committed, e);
+        }
+        return distinct.size();
+    }
+
+    /**
+     * Count the words at the head of a buffer and merge them into a word-count map.
+     */
+    private static void count(WordCounter counter, char[] buffer, int length, HashMap<String, Integer> wordCount) {
+        int size = counter.countWords(buffer, 0, length);
+        for (int i = 0; i < size; i++) {
+            wordCount.merge(counter.getWord(i), counter.getCount(i), Integer::sum);
+        }
+    }
+
+    /**
+     * Publish the word-count to the transport and then update the heavy hitters, so a failed publish is not
+     * counted. With a batch publisher the call returns only after the batch containing this word-count has been
+     * handed to the transport.
+     * @param wordCount the word-count map
+     */
+    private void publish(HashMap<String, Integer> wordCount) throws Exception {
+        if (batchPublisher != null) {
+            batchPublisher.submit(wordCount).get();
+        } else {
+            publisher.publish(wordCount);
+        }
+        if (heavyHitters != null) {
+            heavyHitters.offerAll(wordCount);
+        }
+    }
+
     @Override
     public boolean validate(String target) {
         return target != null && ! target.isEmpty();
     }
+
+    @Override
+    public boolean validate(char[] chars, int offset, int length) {
+        return chars != null && length > 0;
+    }
+
+    /**
+     * Count the words of a range of a char buffer with the thread's {@link WordCounter},
+     * so only the distinct words are materialised as strings.
+     * @param chars the buffer holding the text
+     * @param offset the start of the text
+     * @param length the length of the text
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> countWords(char[] chars, int offset, int length) {
+        WordCounter counter = WordCounter.get();
+        counter.countWords(chars, offset, length);
+        return counter.toMap();
+    }
+
+    /**
+     * Check if the char is a whitespace in the same sense as the regex \s.
+     * @param c the char
+     * @return true if it is a whitespace
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
 }
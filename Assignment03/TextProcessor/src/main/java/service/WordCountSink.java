@@ -0,0 +1,19 @@
+package service;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This interface defines the consume side of a transport, which stores the word-count maps it is handed in batches.
+ * It may be called by several consumer threads at once, so it is a thread-safe interface.
+ */
+public interface WordCountSink {
+
+    /**
+     * Store a batch of word-count maps. A batch failing to be stored may be stored again with the same id,
+     * so a sink may write it idempotently.
+     * @param batchId the id of the batch, the same every time the batch is stored
+     * @param batch the word-count maps in the order they were published
+     */
+    public void store(String batchId, List<HashMap<String, Integer>> batch) throws Exception;
+}
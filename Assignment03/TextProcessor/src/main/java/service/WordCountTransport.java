@@ -0,0 +1,23 @@
+package service;
+
+import java.util.HashMap;
+
+/**
+ * This interface defines the transport carrying the word-count of the requests to the consumers which store it,
+ * either a broker or a queue within the process. A word-count map must not be changed once it is published.
+ * It is a thread-safe interface.
+ */
+public interface WordCountTransport {
+
+    /**
+     * Publish a word-count map to the consumers.
+     * @param wordCount the word-count map
+     */
+    public void publish(HashMap<String, Integer> wordCount) throws Exception;
+
+    /**
+     * Release the resources of the transport once nothing is published anymore.
+     */
+    public default void close() {
+    }
+}
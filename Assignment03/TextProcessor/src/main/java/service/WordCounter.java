@@ -0,0 +1,186 @@
+package service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A reusable word counter which scans the whitespace of a char buffer by hand and counts the words in an
+ * open-addressing hash table keyed by char ranges of that buffer, with primitive int counts. No String is created
+ * while counting; a word is only materialised once per distinct word when the result is read.
+ * An instance is not thread-safe, use {@link #get()} to take the counter bound to the current thread.
+ */
+public class WordCounter {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final ThreadLocal<WordCounter> COUNTERS = ThreadLocal.withInitial(WordCounter::new);
+
+    private char[] source;
+    private int[] starts;
+    private int[] lengths;
+    private int[] hashes;
+    private int[] counts;
+    // the occupied slots in the order the words are first seen
+    private int[] used;
+    private int size;
+    private int mask;
+
+    public WordCounter() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the counter bound to the current thread.
+     * @return the thread local counter
+     */
+    public static WordCounter get() {
+        return COUNTERS.get();
+    }
+
+    /**
+     * Count the words of a range of a char buffer. The buffer must not be changed while the result is read.
+     * @param chars the buffer holding the text
+     * @param offset the start of the text
+     * @param length the length of the text
+     * @return the number of distinct words
+     */
+    public int countWords(char[] chars, int offset, int length) {
+        reset();
+        this.source = chars;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            // skip the whitespace before a word
+            while (i < end && WordCountService.isWhitespace(chars[i])) {
+                i++;
+            }
+            int start = i;
+            int hash = 0;
+            while (i < end && !WordCountService.isWhitespace(chars[i])) {
+                hash = 31 * hash + chars[i];
+                i++;
+            }
+            if (i > start) {
+                add(start, i - start, hash);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of distinct words.
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the i-th distinct word in the order it is first seen.
+     * @param i the index below size
+     * @return the word
+     */
+    public String getWord(int i) {
+        int slot = used[i];
+        return new String(source, starts[slot], lengths[slot]);
+    }
+
+    /**
+     * Get the count of the i-th distinct word.
+     * @param i the index below size
+     * @return the count
+     */
+    public int getCount(int i) {
+        return counts[used[i]];
+    }
+
+    /**
+     * Materialise the result as a word-count map.
+     * @return the word-count map
+     */
+    public HashMap<String, Integer> toMap() {
+        HashMap<String, Integer> wordCount = new HashMap<String, Integer>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            wordCount.put(getWord(i), getCount(i));
+        }
+        return wordCount;
+    }
+
+    private void add(int start, int length, int hash) {
+        int slot = mix(hash) & mask;
+        while (counts[slot] != 0) {
+            if (hashes[slot] == hash && lengths[slot] == length && sameChars(starts[slot], start, length)) {
+                counts[slot]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        starts[slot] = start;
+        lengths[slot] = length;
+        hashes[slot] = hash;
+        counts[slot] = 1;
+        used[size++] = slot;
+        // keep the load factor at most one half
+        if (size << 1 > counts.length) {
+            grow();
+        }
+    }
+
+    private boolean sameChars(int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (source[a + i] != source[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        int[] oldStarts = starts;
+        int[] oldLengths = lengths;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        int[] oldUsed = used;
+        int oldSize = size;
+        allocate(counts.length << 1);
+        for (int i = 0; i < oldSize; i++) {
+            int old = oldUsed[i];
+            int slot = mix(oldHashes[old]) & mask;
+            while (counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            starts[slot] = oldStarts[old];
+            lengths[slot] = oldLengths[old];
+            hashes[slot] = oldHashes[old];
+            counts[slot] = oldCounts[old];
+            used[i] = slot;
+        }
+        size = oldSize;
+    }
+
+    private void allocate(int capacity) {
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        used = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private void reset() {
+        // only the used slots need to be cleared, which keeps a large table cheap to reuse
+        if (size > counts.length >> 3) {
+            Arrays.fill(counts, 0);
+        } else {
+            for (int i = 0; i < size; i++) {
+                counts[used[i]] = 0;
+            }
+        }
+        size = 0;
+        source = null;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,36 @@
+package service;
+
+import model.WordCounterTable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sink adding the word-count to the counter of every word for the in-process transport. A batch is merged
+ * first so every counter is updated once per batch. An ADD is not idempotent, so a batch stored again after a
+ * partial failure counts some words twice. It is a thread-safe class.
+ */
+public class WordCounterSink implements WordCountSink {
+
+    private final WordCounterTable counters;
+
+    /**
+     * Create a sink over the counter table.
+     * @param counters the counter table
+     */
+    public WordCounterSink(WordCounterTable counters) {
+        this.counters = counters;
+    }
+
+    @Override
+    public void store(String batchId, List<HashMap<String, Integer>> batch) throws Exception {
+        HashMap<String, Integer> merged = new HashMap<>();
+        for (HashMap<String, Integer> wordCount : batch) {
+            for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+        counters.add(merged);
+    }
+}
@@ -0,0 +1,90 @@
+package service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The micro-batching publisher: deltas are merged into one message, a full batch is published by the thread
+ * filling it, and the futures follow the outcome of their batch.
+ */
+public class BatchPublisherTest {
+
+    private final List<HashMap<String, Integer>> published = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void mergesTheDeltasOfAWindow() throws Exception {
+        BatchPublisher batches = new BatchPublisher(published::add, 60000, 1000);
+        CompletableFuture<Void> first = batches.submit(map("a", 1, "b", 2));
+        CompletableFuture<Void> second = batches.submit(map("a", 3));
+        assertTrue(published.isEmpty());
+
+        batches.flush();
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals(1, published.size());
+        assertEquals(map("a", 4, "b", 2), published.get(0));
+        batches.close();
+    }
+
+    @Test
+    public void publishesAFullBatchAtOnce() throws Exception {
+        BatchPublisher batches = new BatchPublisher(published::add, 60000, 2);
+        batches.submit(map("a", 1));
+        batches.submit(map("b", 1)).get(1, TimeUnit.SECONDS);
+        assertEquals(1, published.size());
+        batches.close();
+    }
+
+    @Test
+    public void publishesOnTheTimer() throws Exception {
+        BatchPublisher batches = new BatchPublisher(published::add, 10, 1000);
+        batches.submit(map("a", 1)).get(5, TimeUnit.SECONDS);
+        assertEquals(map("a", 1), published.get(0));
+        batches.close();
+    }
+
+    @Test
+    public void failsTheFuturesOfAFailedBatch() throws Exception {
+        BatchPublisher batches = new BatchPublisher(wordCount -> {
+            throw new IllegalStateException("broker down");
+        }, 60000, 1000);
+        CompletableFuture<Void> future = batches.submit(map("a", 1));
+        batches.flush();
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("the batch was not published");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        batches.close();
+    }
+
+    @Test
+    public void closePublishesTheRestAndRejectsLaterDeltas() throws Exception {
+        BatchPublisher batches = new BatchPublisher(published::add, 60000, 1000);
+        CompletableFuture<Void> pending = batches.submit(map("a", 1));
+        batches.close();
+        pending.get(1, TimeUnit.SECONDS);
+        assertEquals(1, published.size());
+        assertTrue(batches.submit(map("b", 1)).isCompletedExceptionally());
+    }
+
+    private static HashMap<String, Integer> map(Object... entries) {
+        HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put((String) entries[i], (Integer) entries[i + 1]);
+        }
+        return map;
+    }
+}
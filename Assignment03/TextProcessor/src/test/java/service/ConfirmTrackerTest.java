@@ -0,0 +1,152 @@
+package service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The confirm tracking of a channel: single and multiple acks, nacks published again up to the max retries,
+ * the bound on unconfirmed publishes, and the hand over of the outstanding publishes when the channel closes.
+ * The channel is a proxy recording the publishes and the listeners.
+ */
+public class ConfirmTrackerTest {
+
+    private final List<String> published = new ArrayList<>();
+    private final List<Object> listeners = new ArrayList<>();
+    private long nextSeqNo = 1;
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getNextPublishSeqNo":
+                            return nextSeqNo;
+                        case "basicPublish":
+                            nextSeqNo++;
+                            published.add(new String((byte[]) args[args.length - 1]));
+                            return null;
+                        case "addConfirmListener":
+                        case "addShutdownListener":
+                            listeners.add(args[0]);
+                            return null;
+                        case "removeConfirmListener":
+                            return listeners.remove(args[0]);
+                        case "removeShutdownListener":
+                            listeners.remove(args[0]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Test
+    public void acksReleaseSingleAndMultipleTags() throws Exception {
+        ConfirmTracker tracker = new ConfirmTracker(channel, 10, 3, null);
+        for (int i = 1; i <= 5; i++) {
+            tracker.publish("", "q", null, ("m" + i).getBytes());
+        }
+        assertEquals(5, tracker.getOutstanding());
+
+        tracker.handleAck(2, false);
+        assertEquals(4, tracker.getOutstanding());
+        tracker.handleAck(4, true);
+        assertEquals(1, tracker.getOutstanding());
+        // an ack of a tag already confirmed changes nothing
+        tracker.handleAck(4, true);
+        assertEquals(1, tracker.getOutstanding());
+        tracker.handleAck(5, false);
+        assertEquals(0, tracker.getOutstanding());
+    }
+
+    @Test
+    public void nacksArePublishedAgainUpToTheMaxRetries() throws Exception {
+        ConfirmTracker tracker = new ConfirmTracker(channel, 10, 2, null);
+        tracker.publish("", "q", null, "m".getBytes());
+
+        tracker.handleNack(1, false);
+        tracker.handleNack(2, false);
+        assertEquals(3, published.size());
+        assertEquals(1, tracker.getOutstanding());
+        // the third nack is past the max retries, the message is dropped
+        tracker.handleNack(3, false);
+        assertEquals(3, published.size());
+        assertEquals(0, tracker.getOutstanding());
+    }
+
+    @Test
+    public void multipleNackRetriesEveryTagInRange() throws Exception {
+        ConfirmTracker tracker = new ConfirmTracker(channel, 10, 1, null);
+        for (int i = 1; i <= 3; i++) {
+            tracker.publish("", "q", null, ("m" + i).getBytes());
+        }
+        tracker.handleNack(2, true);
+        assertEquals(5, published.size());
+        assertEquals("m1", published.get(3));
+        assertEquals("m2", published.get(4));
+        assertEquals(3, tracker.getOutstanding());
+    }
+
+    @Test
+    public void boundsTheUnconfirmedPublishes() throws Exception {
+        ConfirmTracker tracker = new ConfirmTracker(channel, 2, 0, null);
+        tracker.publish("", "q", null, "m1".getBytes());
+        tracker.publish("", "q", null, "m2".getBytes());
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread blocked = new Thread(() -> {
+            try {
+                tracker.publish("", "q", null, "m3".getBytes());
+                done.countDown();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blocked.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        tracker.handleAck(1, false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        blocked.join();
+    }
+
+    @Test
+    public void handsTheOutstandingPublishesOverWhenTheChannelCloses() throws Exception {
+        List<Object[]> republished = new ArrayList<>();
+        ConfirmTracker tracker = new ConfirmTracker(channel, 10, 2,
+                (exchange, routingKey, props, body, attempt) ->
+                        republished.add(new Object[]{new String(body), attempt}));
+        tracker.publish("", "q", null, "m1".getBytes());
+        tracker.publish("", "q", null, "m2".getBytes(), 2);
+        tracker.handleAck(1, false);
+        tracker.publish("", "q", null, "m3".getBytes());
+
+        ShutdownListener shutdown = (ShutdownListener) listeners.get(1);
+        shutdown.shutdownCompleted(new ShutdownSignalException(false, false, (AMQP.Channel.Close) null, null));
+
+        // m2 already used its retries, m3 goes to another channel as its first retry
+        assertEquals(1, republished.size());
+        assertArrayEquals(new Object[]{"m3", 1}, republished.get(0));
+        assertEquals(0, tracker.getOutstanding());
+        assertTrue(listeners.isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Space-Saving summary: exact counts while the words fit, and past its capacity every word above
+ * total / capacity is kept with a count never below its true count.
+ */
+public class HeavyHittersTest {
+
+    @Test
+    public void countsExactlyWhileTheWordsFit() {
+        HeavyHitters summary = new HeavyHitters(10);
+        summary.offer("a", 3);
+        summary.offer("b", 5);
+        summary.offer("a", 4);
+        summary.offer("c", 1);
+
+        Map<String, Long> top = summary.top(10);
+        assertEquals(3, top.size());
+        List<String> order = new ArrayList<>(top.keySet());
+        assertEquals("a", order.get(0));
+        assertEquals("b", order.get(1));
+        assertEquals("c", order.get(2));
+        assertEquals(7L, (long) top.get("a"));
+    }
+
+    @Test
+    public void topIsLimitedToK() {
+        HeavyHitters summary = new HeavyHitters(10);
+        for (int i = 0; i < 10; i++) {
+            summary.offer("w" + i, i + 1);
+        }
+        Map<String, Long> top = summary.top(3);
+        assertEquals(3, top.size());
+        assertTrue(top.containsKey("w9") && top.containsKey("w8") && top.containsKey("w7"));
+    }
+
+    @Test
+    public void keepsTheHeavyHittersOfASkewedStream() {
+        int capacity = 20;
+        HeavyHitters summary = new HeavyHitters(capacity);
+        Map<String, Long> truth = new HashMap<>();
+        Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100000; i++) {
+            // a few frequent words in a long tail of rare ones
+            String word = random.nextInt(4) == 0 ? "hot" + random.nextInt(5) : "cold" + random.nextInt(5000);
+            summary.offer(word, 1);
+            truth.merge(word, 1L, Long::sum);
+            total++;
+        }
+
+        Map<String, Long> top = summary.top(capacity);
+        for (Map.Entry<String, Long> entry : truth.entrySet()) {
+            if (entry.getValue() > total / capacity) {
+                assertTrue(entry.getKey() + " is lost", top.containsKey(entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, Long> entry : top.entrySet()) {
+            assertTrue(entry.getValue() >= truth.get(entry.getKey()));
+        }
+        List<Long> counts = new ArrayList<>(top.values());
+        for (int i = 1; i < counts.size(); i++) {
+            assertTrue(counts.get(i - 1) >= counts.get(i));
+        }
+    }
+
+    @Test
+    public void offerAllAddsAWordCountMap() {
+        HeavyHitters summary = new HeavyHitters(4);
+        Map<String, Integer> wordCount = new HashMap<>();
+        wordCount.put("x", 2);
+        wordCount.put("y", 1);
+        summary.offerAll(wordCount);
+        summary.offerAll(wordCount);
+        assertEquals(4L, (long) summary.top(1).get("x"));
+    }
+}
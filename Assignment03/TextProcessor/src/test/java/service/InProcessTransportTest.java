@@ -0,0 +1,58 @@
+package service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The in-process transport: every published map reaches the sink exactly once through the ring buffer, closing it
+ * drains the buffer first, and a batch the sink fails to store is retried with the same id.
+ */
+public class InProcessTransportTest {
+
+    @Test
+    public void deliversEveryMapOnceAndDrainsOnClose() throws Exception {
+        List<HashMap<String, Integer>> stored = Collections.synchronizedList(new ArrayList<>());
+        InProcessTransport transport = new InProcessTransport(8, 3, 5, (batchId, batch) -> stored.addAll(batch));
+        for (int i = 0; i < 1000; i++) {
+            HashMap<String, Integer> wordCount = new HashMap<>();
+            wordCount.put("word" + i, i);
+            transport.publish(wordCount);
+        }
+        transport.close();
+
+        assertEquals(1000, stored.size());
+        Set<String> words = new HashSet<>();
+        for (HashMap<String, Integer> wordCount : stored) {
+            words.addAll(wordCount.keySet());
+        }
+        assertEquals(1000, words.size());
+        assertEquals(0, transport.getDepth());
+    }
+
+    @Test
+    public void retriesAFailedBatchWithItsId() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> batchIds = Collections.synchronizedList(new ArrayList<>());
+        InProcessTransport transport = new InProcessTransport(8, 1, 10, (batchId, batch) -> {
+            batchIds.add(batchId);
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("the sink is down");
+            }
+        });
+        transport.publish(new HashMap<>(Collections.singletonMap("a", 1)));
+        transport.close();
+
+        assertTrue(batchIds.size() >= 2);
+        assertEquals(batchIds.get(0), batchIds.get(1));
+    }
+}
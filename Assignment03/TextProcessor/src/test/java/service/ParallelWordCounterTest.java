@@ -0,0 +1,72 @@
+package service;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The fork/join word counter gives the same word-count as the serial counter, whatever the chunk size, so no
+ * word is cut or counted twice at a split.
+ */
+public class ParallelWordCounterTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void tearDown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void matchesTheSerialCount() {
+        char[] text = randomText(200000, 11);
+        HashMap<String, Integer> expected = WordCountService.countWords(text, 0, text.length);
+        for (int chunkSize : new int[]{16, 1000, 65536}) {
+            ParallelWordCounter counter = new ParallelWordCounter(POOL, 0, chunkSize);
+            assertEquals(expected, counter.countWords(text, 0, text.length));
+        }
+    }
+
+    @Test
+    public void countsARangeOfTheBuffer() {
+        char[] text = "skip these words the middle words are counted skip".toCharArray();
+        ParallelWordCounter counter = new ParallelWordCounter(POOL, 0, 8);
+        int from = "skip these ".length();
+        int to = text.length - " skip".length();
+        assertEquals(WordCountService.countWords(text, from, to - from), counter.countWords(text, from, to - from));
+    }
+
+    @Test
+    public void keepsAWordLongerThanAChunkWhole() {
+        char[] word = new char[5000];
+        Arrays.fill(word, 'z');
+        String text = "a " + new String(word) + " b " + new String(word);
+        ParallelWordCounter counter = new ParallelWordCounter(POOL, 0, 64);
+        HashMap<String, Integer> counts = counter.countWords(text.toCharArray(), 0, text.length());
+        assertEquals(3, counts.size());
+        assertEquals(Integer.valueOf(2), counts.get(new String(word)));
+    }
+
+    @Test
+    public void countsASmallBodyOnTheCallingThread() {
+        char[] text = "one two two".toCharArray();
+        ParallelWordCounter counter = new ParallelWordCounter(POOL, 1000, 4);
+        assertEquals(WordCountService.countWords(text, 0, text.length), counter.countWords(text, 0, text.length));
+    }
+
+    private static char[] randomText(int words, long seed) {
+        Random random = new Random(seed);
+        String[] separators = {" ", "  ", "\t", "\n", "\r\n"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append("w").append(random.nextInt(20000)).append(separators[random.nextInt(separators.length)]);
+        }
+        return text.toString().toCharArray();
+    }
+}
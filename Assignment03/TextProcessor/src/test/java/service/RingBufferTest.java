@@ -0,0 +1,157 @@
+package service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The lock-free ring buffer: its capacity is a power of two, it keeps the elements in order across the laps, and
+ * under concurrent producers and consumers every element is taken exactly once.
+ */
+public class RingBufferTest {
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(4, new RingBuffer<Integer>(1).capacity());
+        assertEquals(4, new RingBuffer<Integer>(4).capacity());
+        assertEquals(8, new RingBuffer<Integer>(5).capacity());
+        assertEquals(1024, new RingBuffer<Integer>(1000).capacity());
+        assertEquals(1024, new RingBuffer<Integer>(1024).capacity());
+    }
+
+    @Test
+    public void refusesWhenFullAndReturnsNullWhenEmpty() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        assertNull(ring.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) ring.poll());
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void keepsTheOrderAcrossManyLaps() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        int next = 0;
+        int expected = 0;
+        for (int lap = 0; lap < 1000; lap++) {
+            // leave a different number of elements behind on every lap so the head and tail wrap at every index
+            while (ring.offer(next)) {
+                next++;
+            }
+            for (int i = 0; i <= lap % 4; i++) {
+                assertEquals(expected++, (int) ring.poll());
+            }
+        }
+        Integer element;
+        while ((element = ring.poll()) != null) {
+            assertEquals(expected++, (int) element);
+        }
+        assertEquals(next, expected);
+    }
+
+    @Test
+    public void drainsUpToTheMax() {
+        RingBuffer<Integer> ring = new RingBuffer<>(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(i);
+        }
+        List<Integer> batch = new ArrayList<>();
+        assertEquals(3, ring.drainTo(batch, 3));
+        assertEquals(2, ring.drainTo(batch, 10));
+        assertEquals(0, ring.drainTo(batch, 10));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) batch.get(i));
+        }
+    }
+
+    @Test
+    public void takesEveryElementExactlyOnceUnderContention() throws InterruptedException {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 100000;
+        int total = producers * perProducer;
+        RingBuffer<Integer> ring = new RingBuffer<>(64);
+        AtomicIntegerArray taken = new AtomicIntegerArray(total);
+        AtomicLong remaining = new AtomicLong(total);
+        // a consumer takes the elements of a producer in the order they were offered
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = first; i < first + perProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                int[] last = new int[producers];
+                Arrays.fill(last, -1);
+                await(start);
+                while (remaining.get() > 0) {
+                    Integer element = ring.poll();
+                    if (element == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    remaining.decrementAndGet();
+                    taken.incrementAndGet(element);
+                    int producer = element / perProducer;
+                    if (element < last[producer]) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last[producer] = element;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(60000);
+            assertFalse("the ring buffer is stuck", thread.isAlive());
+        }
+
+        for (int i = 0; i < total; i++) {
+            assertEquals("element " + i, 1, taken.get(i));
+        }
+        assertEquals(0, outOfOrder.get());
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The edge cases of the streaming TextLine parser: escapes, multi-byte UTF-8, skipped fields, batches and the
+ * malformed bodies it must reject.
+ */
+public class TextLineParserTest {
+
+    private final TextLineParser parser = new TextLineParser();
+
+    @Test
+    public void parsesTheMessage() throws IOException {
+        assertTrue(parser.parse(body("{\"message\":\"hello world\"}")));
+        assertEquals("hello world", message());
+    }
+
+    @Test
+    public void skipsTheOtherFields() throws IOException {
+        assertTrue(parser.parse(body("{\"id\":12,\"tags\":[\"a\",{\"b\":\"}\"}],\"message\":\"x y\",\"ok\":true}")));
+        assertEquals("x y", message());
+    }
+
+    @Test
+    public void decodesEscapesAndUtf8() throws IOException {
+        assertTrue(parser.parse(body("{\"message\":\"a\\\"b\\\\c\\n\\u00e9 \u00fc\u4e2d \ud83d\ude00\"}")));
+        assertEquals("a\"b\\c\n\u00e9 \u00fc\u4e2d \ud83d\ude00", message());
+    }
+
+    @Test
+    public void rejectsMalformedBodies() throws IOException {
+        assertFalse(parser.parse(body("")));
+        assertFalse(parser.parse(body("{}")));
+        assertFalse(parser.parse(body("{\"message\":12}")));
+        assertFalse(parser.parse(body("{\"message\":\"unterminated}")));
+        assertFalse(parser.parse(body("{\"other\":\"x\"}")));
+        assertFalse(parser.parse(body("{\"message\":\"bad escape \\q\"}")));
+        assertFalse(parser.parse(body("[\"not an object\"]")));
+    }
+
+    @Test
+    public void rejectsTrailingJunk() throws IOException {
+        assertTrue(parser.parse(body("  {\"message\":\"a\"} \r\n\t")));
+        assertFalse(parser.parse(body("{\"message\":\"a\"}x")));
+        assertFalse(parser.parse(body("{\"message\":\"a\"}{\"message\":\"b\"}")));
+        assertEquals(-1, parser.parseBatch(body("[\"a\"] ,")));
+    }
+
+    @Test
+    public void parsesBatchesAsArraysOrNdjson() throws IOException {
+        assertEquals(3, parser.parseBatch(body("[{\"message\":\"a b\"}, \"c\", {\"n\":1,\"message\":\"d\"}]")));
+        assertEquals("a b\nc\nd", message());
+        assertEquals(2, parser.parseBatch(body("{\"message\":\"a\"}\n{\"message\":\"b\"}\n")));
+        assertEquals("a\nb", message());
+        assertEquals(0, parser.parseBatch(body("[ ]")));
+    }
+
+    @Test
+    public void rejectsMalformedBatches() throws IOException {
+        assertEquals(-1, parser.parseBatch(body("[\"a\",]")));
+        assertEquals(-1, parser.parseBatch(body("[\"a\"")));
+        assertEquals(-1, parser.parseBatch(body("[\"a\" \"b\"]")));
+        assertEquals(-1, parser.parseBatch(body("{\"message\":\"a\"},{\"message\":\"b\"}")));
+    }
+
+    @Test
+    public void parsesAcrossReadBuffers() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("word\u00e9").append(i).append(' ');
+        }
+        assertTrue(parser.parse(body("{\"message\":\"" + text + "\"}")));
+        assertEquals(text.toString(), message());
+    }
+
+    @Test
+    public void releaseShrinksAnOversizedBuffer() throws IOException {
+        char[] large = new char[200000];
+        Arrays.fill(large, 'a');
+        assertTrue(parser.parse(body("{\"message\":\"" + new String(large) + "\"}")));
+        assertTrue(parser.chars().length >= large.length);
+        parser.release();
+        assertEquals(0, parser.length());
+        assertTrue(parser.chars().length < large.length);
+    }
+
+    private String message() {
+        return new String(parser.chars(), 0, parser.length());
+    }
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
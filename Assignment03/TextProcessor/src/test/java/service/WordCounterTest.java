@@ -0,0 +1,70 @@
+package service;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The open-addressing word counter, checked against a plain HashMap count, across table growth and the reuse of
+ * a counter for a smaller text.
+ */
+public class WordCounterTest {
+
+    @Test
+    public void countsTheWordsOfARange() {
+        char[] text = "xx the cat and the hat\tand\nthe\r\nend yy".toCharArray();
+        WordCounter counter = new WordCounter();
+        assertEquals(5, counter.countWords(text, 3, text.length - 6));
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("the", 3);
+        expected.put("cat", 1);
+        expected.put("and", 2);
+        expected.put("hat", 1);
+        expected.put("end", 1);
+        assertEquals(expected, counter.toMap());
+        // the words are listed in the order they are first seen
+        assertEquals("the", counter.getWord(0));
+        assertEquals(3, counter.getCount(0));
+    }
+
+    @Test
+    public void countsNothingInWhitespace() {
+        WordCounter counter = new WordCounter();
+        assertEquals(0, counter.countWords(" \t\n ".toCharArray(), 0, 4));
+        assertEquals(0, counter.countWords(new char[0], 0, 0));
+    }
+
+    @Test
+    public void matchesAHashMapAcrossGrowthAndReuse() {
+        WordCounter counter = new WordCounter();
+        Random random = new Random(7);
+        for (int round = 0; round < 3; round++) {
+            int distinct = round == 1 ? 50 : 5000;
+            StringBuilder text = new StringBuilder();
+            Map<String, Integer> expected = new HashMap<>();
+            for (int i = 0; i < 20000; i++) {
+                String word = "w" + random.nextInt(distinct);
+                text.append(word).append(i % 7 == 0 ? '\n' : ' ');
+                expected.merge(word, 1, Integer::sum);
+            }
+            char[] chars = text.toString().toCharArray();
+            assertEquals(expected.size(), counter.countWords(chars, 0, chars.length));
+            assertEquals(expected, counter.toMap());
+        }
+    }
+
+    @Test
+    public void tellsApartWordsWithTheSameHash() {
+        // "Aa" and "BB" have the same String hash
+        char[] text = "Aa BB Aa AaBB BBAa".toCharArray();
+        WordCounter counter = new WordCounter();
+        assertEquals(4, counter.countWords(text, 0, text.length));
+        assertEquals(Integer.valueOf(2), counter.toMap().get("Aa"));
+        assertEquals(Integer.valueOf(1), counter.toMap().get("BB"));
+    }
+}
@@ -0,0 +1,66 @@
+package model;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The partitioned topology of the word-count messages: a direct exchange and N partition queues bound to it by
+ * the partition number. A word always goes to the partition of its hash, so every partition holds a slice of the
+ * vocabulary. The queues allow a single active consumer, so a partition has one owner at a time while the
+ * consumers rebalance.
+ */
+public class PartitionTopology {
+
+    private static final Map<String, Object> QUEUE_ARGUMENTS =
+            Collections.singletonMap("x-single-active-consumer", true);
+
+    private PartitionTopology() {
+    }
+
+    /**
+     * Declare the exchange, the partition queues and their bindings, it is idempotent.
+     * @param channel the channel to declare on
+     * @param queueName the base name of the queues
+     * @param partitions the number of partitions
+     */
+    public static void declare(Channel channel, String queueName, int partitions) throws IOException {
+        channel.exchangeDeclare(exchange(queueName), BuiltinExchangeType.DIRECT);
+        for (int i = 0; i < partitions; i++) {
+            channel.queueDeclare(queue(queueName, i), false, false, false, QUEUE_ARGUMENTS);
+            channel.queueBind(queue(queueName, i), exchange(queueName), "" + i);
+        }
+    }
+
+    /**
+     * Get the exchange routing to the partitions.
+     * @param queueName the base name of the queues
+     * @return the exchange name
+     */
+    public static String exchange(String queueName) {
+        return queueName + ".partitions";
+    }
+
+    /**
+     * Get the queue of a partition.
+     * @param queueName the base name of the queues
+     * @param partition the partition number
+     * @return the queue name
+     */
+    public static String queue(String queueName, int partition) {
+        return queueName + ".p" + partition;
+    }
+
+    /**
+     * Get the partition of a word, it is the same in every process.
+     * @param word the word
+     * @param partitions the number of partitions
+     * @return the partition number
+     */
+    public static int partitionOf(String word, int partitions) {
+        return (word.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+}
@@ -0,0 +1,121 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The layout of the word-count log written by a servlet and tailed by the consumers on the same host. A log is a
+ * directory of fixed size segment files named by their index, each memory-mapped whole. A record is the int length
+ * of the message, the int CRC32 of the message and the message, padded to 4 bytes. The length is written last, so
+ * a reader finding a zero length has reached the end of the written records, and a record whose checksum does not
+ * match is not complete yet. A writer moving to the next segment writes the END length in place of a record.
+ * A reader commits its offset, the segment index and the position in it, to the file "name.offset" of the directory,
+ * and a segment is only deleted once every reader committed an offset past it.
+ */
+public class SegmentLog {
+
+    // the length and checksum of a record
+    public static final int HEADER = 8;
+    // the length marking the end of a segment
+    public static final int END = -1;
+
+    private static final String SUFFIX = ".log";
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    private SegmentLog() {
+    }
+
+    /**
+     * Get the file of a segment.
+     * @param dir the log directory
+     * @param index the segment index
+     * @return the segment file
+     */
+    public static Path segment(Path dir, long index) {
+        return dir.resolve(String.format("%020d", index) + SUFFIX);
+    }
+
+    /**
+     * Get the indexes of the segments in the log.
+     * @param dir the log directory
+     * @return the indexes in ascending order
+     */
+    public static List<Long> segments(Path dir) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                indexes.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * Get the offset file of a reader.
+     * @param dir the log directory
+     * @param name the name of the reader
+     * @return the offset file
+     */
+    public static Path offset(Path dir, String name) {
+        return dir.resolve(name + OFFSET_SUFFIX);
+    }
+
+    /**
+     * Get the lowest segment index committed by the readers of the log, the segments below it are read by all.
+     * @param dir the log directory
+     * @return the lowest committed index, -1 if no reader committed an offset yet
+     */
+    public static long committed(Path dir) throws IOException {
+        long lowest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + OFFSET_SUFFIX)) {
+            for (Path file : files) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    long index = new DataInputStream(in).readLong();
+                    lowest = lowest < 0 ? index : Math.min(lowest, index);
+                }
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Map a segment file whole, a writable mapping creates and extends the file.
+     * @param file the segment file
+     * @param size the segment size
+     * @param write true to map it for writing
+     * @return the mapped segment
+     */
+    public static MappedByteBuffer map(Path file, int size, boolean write) throws IOException {
+        if (write) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Get the position of the record following a record.
+     * @param position the position of the record
+     * @param length the length of its message
+     * @return the position of the next record
+     */
+    public static int next(int position, int length) {
+        return (position + HEADER + length + 3) & ~3;
+    }
+}
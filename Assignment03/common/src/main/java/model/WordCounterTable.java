@@ -0,0 +1,396 @@
+package model;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The word-count stored as one atomic counter per word, in a Dynamo table keyed by the string attribute "word"
+ * with the number attribute "count". A delta is added by an UpdateItem ADD, so the table is bounded by the
+ * vocabulary and the count of a word is read by a single GetItem. The updates of a word-count are sent in
+ * parallel on a bounded pool, and the throttled or failed ones are retried with a jittered exponential backoff.
+ * An ADD is not idempotent, so a word-count stored again after a partial failure counts some words twice.
+ * A hot word, updated more often than a rate per shard, has its updates spread over salted keys "word #1" to
+ * "word #N-1" besides its own key, and N is published as the number attribute "shards" of the item of the word
+ * before any of the new shards is written, so every process reading the word finds all of its shards and sums
+ * them with a BatchGetItem. Words hold no whitespace, so a salted key is never a word. Shards are never merged back.
+ * It is a thread-safe class.
+ */
+public class WordCounterTable {
+
+    public static final String WORD = "word";
+    public static final String COUNT = "count";
+    public static final String SHARDS = "shards";
+
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+    // the max number of keys of a BatchGetItem
+    private static final int MAX_BATCH_GET = 100;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AmazonDynamoDB client;
+    private final String tableName;
+    private final int maxAttempts;
+    private final ExecutorService updater;
+    // the max updates per second of a shard before the word is split over more shards
+    private final int hotUpdatesPerSecond;
+    private final int maxShards;
+    // the number of shards of the words sharded so far, as far as this process knows
+    private final Map<String, Integer> shardCounts = new ConcurrentHashMap<>();
+    // the updates of every word in the current rate window
+    private volatile Map<String, AtomicInteger> updateCounts = new ConcurrentHashMap<>();
+    private volatile long windowStart = System.nanoTime();
+
+    /**
+     * Create a counter table over an existing table.
+     * @param client the dynamo client
+     * @param tableName the counter table
+     * @param threads the max number of updates in flight
+     * @param maxAttempts the max number of attempts of an update
+     */
+    public WordCounterTable(AmazonDynamoDB client, String tableName, int threads, int maxAttempts) {
+        this(client, tableName, threads, maxAttempts, Integer.MAX_VALUE, 1);
+    }
+
+    /**
+     * Create a counter table sharding its hot words.
+     * @param client the dynamo client
+     * @param tableName the counter table
+     * @param threads the max number of updates in flight
+     * @param maxAttempts the max number of attempts of an update
+     * @param hotUpdatesPerSecond the max updates per second of a shard before its word is split over more shards
+     * @param maxShards the max number of shards of a word, 1 not to shard the words written by this process
+     */
+    public WordCounterTable(AmazonDynamoDB client, String tableName, int threads, int maxAttempts,
+                            int hotUpdatesPerSecond, int maxShards) {
+        this.client = client;
+        this.tableName = tableName;
+        this.maxAttempts = maxAttempts;
+        this.hotUpdatesPerSecond = hotUpdatesPerSecond;
+        this.maxShards = maxShards;
+        this.updater = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "word-counter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add a word-count to the counters of its words, and wait for all of the updates.
+     * @param wordCount the delta of every word
+     * @throws Exception if an update fails after its retries, the other updates are applied
+     */
+    public void add(Map<String, Integer> wordCount) throws Exception {
+        List<Future<?>> updates = new ArrayList<>(wordCount.size());
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            if (entry.getKey().isEmpty() || entry.getValue() == 0) {
+                continue;
+            }
+            updates.add(updater.submit(() -> {
+                update(entry.getKey(), entry.getValue());
+                return null;
+            }));
+        }
+        Exception failure = null;
+        for (Future<?> update : updates) {
+            try {
+                update.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Get the count of a word, the sum of all of its shards.
+     * @param word the word
+     * @return the count, 0 if the word is not counted
+     */
+    public int get(String word) throws InterruptedException {
+        int known = shardCounts.getOrDefault(word, 1);
+        long count = 0;
+        int published = 1;
+        for (Map<String, AttributeValue> item : read(word, 0, known)) {
+            count += item.containsKey(COUNT) ? Long.parseLong(item.get(COUNT).getN()) : 0;
+            if (item.containsKey(SHARDS)) {
+                published = Integer.parseInt(item.get(SHARDS).getN());
+            }
+        }
+        if (published > known) {
+            // the word was split over more shards by a writer
+            shardCounts.merge(word, published, Math::max);
+            for (Map<String, AttributeValue> item : read(word, known, published)) {
+                count += item.containsKey(COUNT) ? Long.parseLong(item.get(COUNT).getN()) : 0;
+            }
+        }
+        return (int) count;
+    }
+
+    /**
+     * Get the counts of several words, the sums of all of their shards, by BatchGetItem calls of up to 100 keys
+     * instead of one read per word.
+     * @param words the words
+     * @return the count of every word, 0 if the word is not counted
+     */
+    public Map<String, Integer> getAll(Collection<String> words) throws InterruptedException {
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, String> wordsOfKeys = new HashMap<>();
+        for (String word : words) {
+            counts.put(word, 0L);
+            for (int shard = 0; shard < shardsOf(word); shard++) {
+                wordsOfKeys.put(key(word, shard), word);
+            }
+        }
+        Map<String, String> more = new HashMap<>();
+        for (Map<String, AttributeValue> item : readAll(wordsOfKeys.keySet())) {
+            String word = wordsOfKeys.get(item.get(WORD).getS());
+            counts.merge(word, item.containsKey(COUNT) ? Long.parseLong(item.get(COUNT).getN()) : 0, Long::sum);
+            if (item.containsKey(SHARDS)) {
+                // the word was split over more shards by a writer
+                int known = shardsOf(word);
+                int published = Integer.parseInt(item.get(SHARDS).getN());
+                shardCounts.merge(word, published, Math::max);
+                for (int shard = known; shard < published; shard++) {
+                    more.put(key(word, shard), word);
+                }
+            }
+        }
+        for (Map<String, AttributeValue> item : readAll(more.keySet())) {
+            String word = more.get(item.get(WORD).getS());
+            counts.merge(word, item.containsKey(COUNT) ? Long.parseLong(item.get(COUNT).getN()) : 0, Long::sum);
+        }
+        Map<String, Integer> result = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            result.put(entry.getKey(), (int) (long) entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of shards of a word known to this process.
+     * @param word the word
+     * @return the number of shards, 1 if the word is not sharded
+     */
+    public int shardsOf(String word) {
+        return shardCounts.getOrDefault(word, 1);
+    }
+
+    /**
+     * Get the key of a shard of a word.
+     * @param word the word
+     * @param shard the shard, 0 for the item of the word itself
+     * @return the key
+     */
+    public static String key(String word, int shard) {
+        return shard == 0 ? word : word + " #" + shard;
+    }
+
+    /**
+     * Stop the update pool.
+     */
+    public void close() {
+        updater.shutdown();
+    }
+
+    /**
+     * Add a delta to the counter of a word on one of its shards, retrying the throttled and server failures.
+     * @param word the word
+     * @param delta the delta
+     */
+    public void update(String word, int delta) throws InterruptedException {
+        int shards = shardsFor(word);
+        String key = key(word, shards == 1 ? 0 : ThreadLocalRandom.current().nextInt(shards));
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(tableName)
+                .withKey(Collections.singletonMap(WORD, new AttributeValue(key)))
+                // count is a reserved word
+                .withUpdateExpression("ADD #c :d")
+                .withExpressionAttributeNames(Collections.singletonMap("#c", COUNT))
+                .withExpressionAttributeValues(Collections.singletonMap(":d", new AttributeValue().withN("" + delta)));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                client.updateItem(request);
+                return;
+            } catch (AmazonServiceException e) {
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                Thread.sleep(backoff(attempt));
+            }
+        }
+    }
+
+    /**
+     * Get a full jitter backoff, a random time up to an exponential bound.
+     * @param attempt the number of the failed attempt, from 1
+     * @return the backoff in millis
+     */
+    public static long backoff(int attempt) {
+        long bound = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Check if a failed request may succeed if it is sent again, ie it was throttled or failed on the server.
+     * @param e the failure
+     * @return true if the request is retryable and vice versa
+     */
+    public static boolean isRetryable(AmazonServiceException e) {
+        return e instanceof ProvisionedThroughputExceededException
+                || "ThrottlingException".equals(e.getErrorCode())
+                || "RequestLimitExceeded".equals(e.getErrorCode())
+                || e.getStatusCode() >= 500;
+    }
+
+    /**
+     * Count an update of a word in the rate window, and split the word over more shards once its updates per
+     * shard exceed the hot rate.
+     * @param word the word
+     * @return the number of shards to write the word to
+     */
+    private int shardsFor(String word) throws InterruptedException {
+        if (maxShards <= 1) {
+            return shardsOf(word);
+        }
+        long now = System.nanoTime();
+        if (now - windowStart > RATE_WINDOW_NANOS) {
+            synchronized (this) {
+                if (now - windowStart > RATE_WINDOW_NANOS) {
+                    updateCounts = new ConcurrentHashMap<>();
+                    windowStart = now;
+                }
+            }
+        }
+        int updates = updateCounts.computeIfAbsent(word, w -> new AtomicInteger()).incrementAndGet();
+        int shards = shardsOf(word);
+        if (updates > (long) hotUpdatesPerSecond * shards && shards < maxShards) {
+            shards = grow(word, Math.min(maxShards, shards * 2));
+        }
+        return shards;
+    }
+
+    /**
+     * Publish a larger number of shards of a word before it is written to, keeping a larger one published
+     * by another process.
+     * @param word the word
+     * @param shards the number of shards
+     * @return the number of shards of the word
+     */
+    private synchronized int grow(String word, int shards) throws InterruptedException {
+        int known = shardsOf(word);
+        if (known >= shards) {
+            return known;
+        }
+        Map<String, String> names = Collections.singletonMap("#s", SHARDS);
+        Map<String, AttributeValue> values = Collections.singletonMap(":n", new AttributeValue().withN("" + shards));
+        try {
+            client.updateItem(new UpdateItemRequest()
+                    .withTableName(tableName)
+                    .withKey(Collections.singletonMap(WORD, new AttributeValue(word)))
+                    .withUpdateExpression("SET #s = :n")
+                    .withConditionExpression("attribute_not_exists(#s) OR #s < :n")
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values));
+        } catch (ConditionalCheckFailedException e) {
+            // another process published more shards
+            Map<String, AttributeValue> item = client.getItem(new GetItemRequest()
+                    .withTableName(tableName)
+                    .withKey(Collections.singletonMap(WORD, new AttributeValue(word)))
+                    .withProjectionExpression("#s")
+                    .withExpressionAttributeNames(names)
+                    .withConsistentRead(true)).getItem();
+            shards = Math.max(shards, Integer.parseInt(item.get(SHARDS).getN()));
+        } catch (AmazonServiceException e) {
+            // the word stays on its shards until it is found hot again
+            System.err.println("fail to publish the shards of a word");
+            return known;
+        }
+        shardCounts.merge(word, shards, Math::max);
+        return shards;
+    }
+
+    /**
+     * Read the items of a range of shards of a word, by a GetItem for the word alone or else by BatchGetItem.
+     * @param word the word
+     * @param from the first shard
+     * @param to the shard after the last one
+     * @return the items found
+     */
+    private List<Map<String, AttributeValue>> read(String word, int from, int to) throws InterruptedException {
+        Map<String, String> names = new HashMap<>();
+        names.put("#c", COUNT);
+        names.put("#s", SHARDS);
+        if (from == 0 && to == 1) {
+            Map<String, AttributeValue> item = client.getItem(new GetItemRequest()
+                    .withTableName(tableName)
+                    .withKey(Collections.singletonMap(WORD, new AttributeValue(word)))
+                    .withProjectionExpression("#c, #s")
+                    .withExpressionAttributeNames(names)).getItem();
+            return item == null ? Collections.emptyList() : Collections.singletonList(item);
+        }
+        List<String> keys = new ArrayList<>(to - from);
+        for (int shard = from; shard < to; shard++) {
+            keys.add(key(word, shard));
+        }
+        return readAll(keys);
+    }
+
+    /**
+     * Read the items of a number of keys by BatchGetItem calls, retrying their unprocessed keys with a backoff.
+     * @param keys the keys
+     * @return the items found, with their key, count and shards
+     */
+    private List<Map<String, AttributeValue>> readAll(Collection<String> keys) throws InterruptedException {
+        Map<String, String> names = new HashMap<>();
+        names.put("#w", WORD);
+        names.put("#c", COUNT);
+        names.put("#s", SHARDS);
+        List<String> all = new ArrayList<>(keys);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(all.size());
+        for (int start = 0; start < all.size(); start += MAX_BATCH_GET) {
+            List<Map<String, AttributeValue>> batch = new ArrayList<>();
+            for (String key : all.subList(start, Math.min(all.size(), start + MAX_BATCH_GET))) {
+                batch.add(Collections.singletonMap(WORD, new AttributeValue(key)));
+            }
+            Map<String, KeysAndAttributes> request = Collections.singletonMap(tableName, new KeysAndAttributes()
+                    .withKeys(batch).withProjectionExpression("#w, #c, #s").withExpressionAttributeNames(names));
+            for (int attempt = 1; !request.isEmpty(); attempt++) {
+                BatchGetItemResult result = client.batchGetItem(new BatchGetItemRequest(request));
+                List<Map<String, AttributeValue>> found = result.getResponses().get(tableName);
+                if (found != null) {
+                    items.addAll(found);
+                }
+                request = result.getUnprocessedKeys();
+                if (!request.isEmpty()) {
+                    Thread.sleep(backoff(attempt));
+                }
+            }
+        }
+        return items;
+    }
+}
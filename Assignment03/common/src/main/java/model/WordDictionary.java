@@ -0,0 +1,280 @@
+package model;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent dictionary of dense int ids for words, shared by the servlets and the consumers through a Dynamo
+ * table keyed by the string attribute "key". A word is stored twice, as "w:word" holding its id and as "i:id"
+ * holding the word, and ids are allocated by the atomic counter item "#counter". The reverse item is written
+ * before the forward one is claimed by a conditional put, so any id handed out can be resolved by every process;
+ * a process losing the race adopts the id of the winner and its own id is left unused.
+ * Known entries are cached in process, the least recently used ones being evicted past a max size, and the ids
+ * of many words are resolved by BatchGetItem calls. It is a thread-safe class.
+ */
+public class WordDictionary {
+
+    private static final String KEY = "key";
+    private static final String ID = "id";
+    private static final String WORD = "word";
+    private static final String COUNTER = "#counter";
+    private static final String NEXT = "next";
+    // the max number of keys of a BatchGetItem
+    private static final int MAX_BATCH_GET = 100;
+    // the number of independently locked segments of a cache
+    private static final int SEGMENTS = 16;
+
+    private final AmazonDynamoDB client;
+    private final String tableName;
+    private final LruCache<String, Integer> ids;
+    private final LruCache<Integer, String> words;
+    // the words waiting for an id in the background
+    private final Set<String> assigning = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor assigner;
+
+    /**
+     * Create a dictionary over an existing table.
+     * @param client the dynamo client
+     * @param tableName the dictionary table
+     * @param maxCached the max number of words cached in process
+     * @param assignThreads the number of threads assigning ids to unseen words in the background
+     */
+    public WordDictionary(AmazonDynamoDB client, String tableName, int maxCached, int assignThreads) {
+        this.client = client;
+        this.tableName = tableName;
+        this.ids = new LruCache<>(maxCached);
+        this.words = new LruCache<>(maxCached);
+        this.assigner = new ThreadPoolExecutor(assignThreads, assignThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(10000), r -> {
+                    Thread thread = new Thread(r, "word-dictionary");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Get the id of a word without blocking. An unseen word is given an id in the background,
+     * so it is sent inline until its id is known.
+     * @param word the word
+     * @return the id of the word, 0 if it is not known yet
+     */
+    public int idOf(String word) {
+        Integer id = ids.get(word);
+        if (id != null) {
+            return id;
+        }
+        if (assigning.add(word)) {
+            try {
+                assigner.execute(() -> {
+                    try {
+                        assign(word);
+                    } catch (Exception e) {
+                        System.err.println("fail to assign the word id");
+                    } finally {
+                        assigning.remove(word);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the word is tried again the next time it is seen
+                assigning.remove(word);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the word of an id, it is read from the table on a cache miss.
+     * @param id the id
+     * @return the word, null if the id is not assigned
+     */
+    public String wordOf(int id) {
+        String word = words.get(id);
+        if (word != null) {
+            return word;
+        }
+        Map<String, AttributeValue> item = getItem("i:" + id);
+        if (item == null) {
+            return null;
+        }
+        word = item.get(WORD).getS();
+        cache(word, id);
+        return word;
+    }
+
+    /**
+     * Get the words of many ids at once, the ids missing from the cache are read by BatchGetItem calls.
+     * @param ids the ids
+     * @return the word of every id, null where the id is not assigned
+     */
+    public String[] wordsOf(int[] ids) throws InterruptedException {
+        String[] result = new String[ids.length];
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        Set<Integer> requested = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = words.get(ids[i]);
+            if (result[i] == null && requested.add(ids[i])) {
+                keys.add(Collections.singletonMap(KEY, new AttributeValue("i:" + ids[i])));
+            }
+        }
+        if (keys.isEmpty()) {
+            return result;
+        }
+        Map<Integer, String> loaded = new HashMap<>();
+        for (int start = 0; start < keys.size(); start += MAX_BATCH_GET) {
+            Map<String, KeysAndAttributes> request = Collections.singletonMap(tableName, new KeysAndAttributes()
+                    .withKeys(keys.subList(start, Math.min(keys.size(), start + MAX_BATCH_GET)))
+                    .withConsistentRead(true));
+            for (int attempt = 1; !request.isEmpty(); attempt++) {
+                BatchGetItemResult batch = client.batchGetItem(new BatchGetItemRequest(request));
+                List<Map<String, AttributeValue>> found = batch.getResponses().get(tableName);
+                if (found != null) {
+                    for (Map<String, AttributeValue> item : found) {
+                        int id = Integer.parseInt(item.get(KEY).getS().substring(2));
+                        String word = item.get(WORD).getS();
+                        loaded.put(id, word);
+                        cache(word, id);
+                    }
+                }
+                request = batch.getUnprocessedKeys();
+                if (!request.isEmpty()) {
+                    Thread.sleep(WordCounterTable.backoff(attempt));
+                }
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (result[i] == null) {
+                result[i] = loaded.get(ids[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the id of a word, allocating one if the word is not in the table yet.
+     * @param word the word
+     * @return the id of the word
+     */
+    public int assign(String word) {
+        Integer id = ids.get(word);
+        if (id != null) {
+            return id;
+        }
+        id = loadId(word);
+        if (id == null) {
+            int candidate = nextId();
+            Map<String, AttributeValue> reverse = new HashMap<>();
+            reverse.put(KEY, new AttributeValue("i:" + candidate));
+            reverse.put(WORD, new AttributeValue(word));
+            client.putItem(new PutItemRequest(tableName, reverse));
+
+            Map<String, AttributeValue> forward = new HashMap<>();
+            forward.put(KEY, new AttributeValue("w:" + word));
+            forward.put(ID, new AttributeValue().withN("" + candidate));
+            try {
+                client.putItem(new PutItemRequest(tableName, forward)
+                        .withConditionExpression("attribute_not_exists(#k)")
+                        .withExpressionAttributeNames(Collections.singletonMap("#k", KEY)));
+                id = candidate;
+            } catch (ConditionalCheckFailedException e) {
+                // another process claimed the word first
+                id = loadId(word);
+            }
+        }
+        cache(word, id);
+        return id;
+    }
+
+    /**
+     * Stop assigning ids in the background.
+     */
+    public void close() {
+        assigner.shutdown();
+    }
+
+    private Integer loadId(String word) {
+        Map<String, AttributeValue> item = getItem("w:" + word);
+        return item == null ? null : Integer.parseInt(item.get(ID).getN());
+    }
+
+    private int nextId() {
+        Map<String, AttributeValue> attributes = client.updateItem(new UpdateItemRequest()
+                .withTableName(tableName)
+                .withKey(Collections.singletonMap(KEY, new AttributeValue(COUNTER)))
+                .withUpdateExpression("ADD #n :one")
+                .withExpressionAttributeNames(Collections.singletonMap("#n", NEXT))
+                .withExpressionAttributeValues(Collections.singletonMap(":one", new AttributeValue().withN("1")))
+                .withReturnValues(ReturnValue.UPDATED_NEW)).getAttributes();
+        return Integer.parseInt(attributes.get(NEXT).getN());
+    }
+
+    private Map<String, AttributeValue> getItem(String key) {
+        return client.getItem(new GetItemRequest(tableName, Collections.singletonMap(KEY, new AttributeValue(key)))
+                .withConsistentRead(true)).getItem();
+    }
+
+    private void cache(String word, int id) {
+        ids.put(word, id);
+        words.put(id, word);
+    }
+
+    /**
+     * A cache evicting its least recently used entries, split in segments locked apart so concurrent lookups
+     * rarely contend. Every segment holds an equal share of the max size.
+     */
+    private static class LruCache<K, V> {
+        private final List<Map<K, V>> segments = new ArrayList<>(SEGMENTS);
+
+        private LruCache(int maxSize) {
+            int segmentSize = Math.max(1, maxSize / SEGMENTS);
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments.add(new LinkedHashMap<K, V>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                        return size() > segmentSize;
+                    }
+                });
+            }
+        }
+
+        private V get(K key) {
+            Map<K, V> segment = segment(key);
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        private void put(K key, V value) {
+            Map<K, V> segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+
+        private Map<K, V> segment(K key) {
+            int hash = key.hashCode();
+            return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+        }
+    }
+}
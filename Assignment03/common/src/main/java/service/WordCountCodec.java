@@ -0,0 +1,401 @@
+package service;
+
+import model.WordDictionary;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The versioned binary wire format of a word-count message, which replaces the java serialization of a HashMap.
+ * A message is the magic byte, the version byte, the varint number of entries, then for every entry the varint
+ * length of the UTF-8 word, the word bytes and the varint count. The content type of the message tells the
+ * consumers which format to decode, and a message without it is taken as a legacy java serialized map.
+ * In version 2 the words are replaced by their ids in a shared {@link WordDictionary}: every entry starts with a
+ * varint key, an even key is the id shifted left by one, and the key 1 marks a word not in the dictionary yet,
+ * which follows inline as in version 1.
+ * A large message may be compressed with deflate, which is told by the content encoding of the message, and is
+ * refused once it inflates past the max message size. A legacy message may only hold a HashMap of strings and
+ * integers, any other class in the stream is refused before it is loaded.
+ * An instance is not thread-safe, use {@link #get()} to take the codec bound to the current thread.
+ */
+public class WordCountCodec {
+
+    // the content type of a binary message
+    public static final String CONTENT_TYPE = "application/vnd.wordcount";
+    // the content type of a legacy message
+    public static final String LEGACY_CONTENT_TYPE = "application/x-java-serialized-object";
+    public static final byte MAGIC = 0x57;
+    public static final byte VERSION = 1;
+    public static final byte DICTIONARY_VERSION = 2;
+    // the key of an entry whose word follows inline
+    private static final int INLINE = 1;
+    // the content encoding of a compressed message
+    public static final String DEFLATE = "deflate";
+    // the max size of an inflated message
+    public static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    // the classes a legacy message is made of
+    private static final Set<String> LEGACY_CLASSES = new HashSet<>(Arrays.asList(
+            HashMap.class.getName(), String.class.getName(), Integer.class.getName(), Number.class.getName()));
+
+    /**
+     * The counts of the word ids of decoded messages, which are resolved to words later and in bulk.
+     */
+    public interface IdCounts {
+        /**
+         * Add a count to a word id.
+         * @param id the word id
+         * @param count the count
+         */
+        void add(int id, int count);
+    }
+
+    private static final ThreadLocal<WordCountCodec> CODECS = ThreadLocal.withInitial(WordCountCodec::new);
+
+    private byte[] buffer = new byte[1024];
+    private int position;
+    private byte[] deflated = new byte[1024];
+    private byte[] inflated = new byte[1024];
+    private final Deflater deflater = new Deflater();
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Get the codec bound to the current thread.
+     * @return the thread local codec
+     */
+    public static WordCountCodec get() {
+        return CODECS.get();
+    }
+
+    /**
+     * Encode a word-count map in the reusable buffer.
+     * @param wordCount the word-count map
+     * @return the message bytes
+     */
+    public byte[] encode(Map<String, Integer> wordCount) {
+        position = 0;
+        ensure(2 + 5);
+        buffer[position++] = MAGIC;
+        buffer[position++] = VERSION;
+        writeVarint(wordCount.size());
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            writeWord(entry.getKey());
+            ensure(5);
+            writeVarint(entry.getValue());
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Encode a word-count map with the ids of a dictionary, the words without an id yet are sent inline.
+     * @param wordCount the word-count map
+     * @param dictionary the shared dictionary
+     * @return the message bytes
+     */
+    public byte[] encode(Map<String, Integer> wordCount, WordDictionary dictionary) {
+        position = 0;
+        ensure(2 + 5);
+        buffer[position++] = MAGIC;
+        buffer[position++] = DICTIONARY_VERSION;
+        writeVarint(wordCount.size());
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            int id = dictionary.idOf(entry.getKey());
+            ensure(5);
+            if (id > 0) {
+                writeVarint(id << 1);
+            } else {
+                writeVarint(INLINE);
+                writeWord(entry.getKey());
+            }
+            ensure(5);
+            writeVarint(entry.getValue());
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Compress a message with deflate in the reusable buffer.
+     * @param body the message bytes
+     * @param level the deflate level, from 1 for speed to 9 for size
+     * @return the compressed bytes
+     */
+    public byte[] compress(byte[] body, int level) {
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(body);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length << 1);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return Arrays.copyOf(deflated, length);
+    }
+
+    /**
+     * Decompress a message by its content encoding.
+     * @param contentEncoding the content encoding of the message, null if it is not compressed
+     * @param body the message bytes
+     * @return the decompressed bytes
+     * @throws IllegalArgumentException if the message is malformed or inflates past the max message size
+     */
+    public byte[] decompress(String contentEncoding, byte[] body) {
+        if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equals(contentEncoding)) {
+            return body;
+        }
+        if (!DEFLATE.equals(contentEncoding)) {
+            throw new IllegalArgumentException("unsupported content encoding " + contentEncoding);
+        }
+        inflater.reset();
+        inflater.setInput(body);
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == inflated.length) {
+                    if (length >= MAX_MESSAGE_BYTES) {
+                        throw new IllegalArgumentException("the deflate message inflates past "
+                                + MAX_MESSAGE_BYTES + " bytes");
+                    }
+                    inflated = Arrays.copyOf(inflated, Math.min(inflated.length << 1, MAX_MESSAGE_BYTES));
+                }
+                int n = inflater.inflate(inflated, length, inflated.length - length);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("truncated deflate message");
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("malformed deflate message", e);
+        }
+        return Arrays.copyOf(inflated, length);
+    }
+
+    /**
+     * Decompress a message by its content encoding and decode it by its content type.
+     * @param contentType the content type of the message, may be null
+     * @param contentEncoding the content encoding of the message, null if it is not compressed
+     * @param body the message bytes
+     * @param dictionary the shared dictionary, may be null if no message uses it
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> decode(String contentType, String contentEncoding, byte[] body,
+                                                  WordDictionary dictionary) {
+        return decode(contentType, get().decompress(contentEncoding, body), dictionary);
+    }
+
+    /**
+     * Decompress and decode a message without resolving its word ids: the inline words are merged into a
+     * word-count map and the ids into their counts, so the ids of many messages are resolved at once, off the
+     * thread receiving them.
+     * @param contentType the content type of the message, may be null
+     * @param contentEncoding the content encoding of the message, null if it is not compressed
+     * @param body the message bytes
+     * @param words the word-count the inline words are merged into
+     * @param ids the counts the word ids are added to
+     */
+    public static void decode(String contentType, String contentEncoding, byte[] body, Map<String, Integer> words,
+                              IdCounts ids) {
+        body = get().decompress(contentEncoding, body);
+        if (CONTENT_TYPE.equals(contentType) || (contentType == null && body.length > 1 && body[0] == MAGIC)) {
+            decodeBinary(body, null, words, ids);
+            return;
+        }
+        HashMap<String, Integer> legacy = decodeLegacy(body);
+        for (Map.Entry<String, Integer> entry : legacy.entrySet()) {
+            words.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    /**
+     * Decode a message by its content type, a message without content type is sniffed by its first bytes.
+     * @param contentType the content type of the message, may be null
+     * @param body the message bytes
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> decode(String contentType, byte[] body) {
+        return decode(contentType, body, null);
+    }
+
+    /**
+     * Decode a message by its content type, resolving the word ids with a dictionary.
+     * @param contentType the content type of the message, may be null
+     * @param body the message bytes
+     * @param dictionary the shared dictionary, may be null if no message uses it
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> decode(String contentType, byte[] body, WordDictionary dictionary) {
+        if (CONTENT_TYPE.equals(contentType) || (contentType == null && body.length > 1 && body[0] == MAGIC)) {
+            return decodeBinary(body, dictionary);
+        }
+        return decodeLegacy(body);
+    }
+
+    /**
+     * Decode a legacy java serialized map, only the classes of a word-count map are resolved.
+     * @param body the message bytes
+     * @return the word-count map
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Integer> decodeLegacy(byte[] body) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(body)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                if (!LEGACY_CLASSES.contains(desc.getName())) {
+                    throw new InvalidClassException(desc.getName(), "not allowed in a word count message");
+                }
+                return super.resolveClass(desc);
+            }
+        }) {
+            Object map = in.readObject();
+            if (!(map instanceof HashMap)) {
+                throw new IllegalArgumentException("not a word count message");
+            }
+            return (HashMap<String, Integer>) map;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("malformed legacy word count message", e);
+        }
+    }
+
+    /**
+     * Decode a binary message of version 1.
+     * @param body the message bytes
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> decodeBinary(byte[] body) {
+        return decodeBinary(body, null);
+    }
+
+    /**
+     * Decode a binary message, resolving the word ids with a dictionary.
+     * @param body the message bytes
+     * @param dictionary the shared dictionary, may be null if the message does not use it
+     * @return the word-count map
+     */
+    public static HashMap<String, Integer> decodeBinary(byte[] body, WordDictionary dictionary) {
+        return decodeBinary(body, dictionary, null, null);
+    }
+
+    /**
+     * Decode a binary message either into a new word-count map, or merged into a given one with the word ids
+     * left unresolved.
+     * @return the new word-count map, null if the message is merged into the given one
+     */
+    private static HashMap<String, Integer> decodeBinary(byte[] body, WordDictionary dictionary,
+                                                         Map<String, Integer> into, IdCounts idCounts) {
+        if (body.length < 2 || body[0] != MAGIC) {
+            throw new IllegalArgumentException("not a word count message");
+        }
+        boolean ids = body[1] == DICTIONARY_VERSION;
+        if (body[1] != VERSION && !ids) {
+            throw new IllegalArgumentException("unsupported word count message version " + body[1]);
+        }
+        if (ids && dictionary == null && idCounts == null) {
+            throw new IllegalArgumentException("a word dictionary is needed to decode the message");
+        }
+        int[] cursor = {2};
+        int size = readVarint(body, cursor);
+        HashMap<String, Integer> wordCount = into == null ? new HashMap<String, Integer>(size * 4 / 3 + 1) : null;
+        Map<String, Integer> words = into == null ? wordCount : into;
+        for (int i = 0; i < size; i++) {
+            String word;
+            int key = ids ? readVarint(body, cursor) : INLINE;
+            if (key == INLINE) {
+                int length = readVarint(body, cursor);
+                word = new String(body, cursor[0], length, StandardCharsets.UTF_8);
+                cursor[0] += length;
+            } else if (idCounts != null) {
+                idCounts.add(key >>> 1, readVarint(body, cursor));
+                continue;
+            } else {
+                word = dictionary.wordOf(key >>> 1);
+                if (word == null) {
+                    throw new IllegalArgumentException("unknown word id " + (key >>> 1));
+                }
+            }
+            words.merge(word, readVarint(body, cursor), Integer::sum);
+        }
+        return wordCount;
+    }
+
+    /**
+     * Write the varint length and the UTF-8 bytes of a word, encoding the chars straight into the buffer.
+     */
+    private void writeWord(String word) {
+        int length = word.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(word.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        ensure(5 + bytes);
+        writeVarint(bytes);
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(word.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, word.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                // a lone surrogate takes three bytes here, it is replaced when the word is decoded
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static int readVarint(byte[] body, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = body[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private void ensure(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + extra));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package statistic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets. Percentiles are reported
+ * as the upper bound of the bucket they fall in, which is precise enough to see the cost of an operation.
+ * It is a thread-safe class.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one latency.
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        // bucket i holds latencies below 2^i microseconds
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // retry until the max is updated or a larger one is seen
+        }
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the latency at a percentile in microseconds.
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(1L << i, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Take a snapshot of the histogram for reporting.
+     * @return the summary and non-empty buckets
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long total = count.get();
+        snapshot.put("count", total);
+        snapshot.put("mean_us", total == 0 ? 0 : sum.get() / total);
+        snapshot.put("p50_us", percentile(50));
+        snapshot.put("p99_us", percentile(99));
+        snapshot.put("max_us", max.get());
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = buckets.get(i);
+            if (n > 0) {
+                histogram.put("<" + (1L << i) + "us", n);
+            }
+        }
+        snapshot.put("buckets", histogram);
+        return snapshot;
+    }
+}
@@ -0,0 +1,66 @@
+package statistic;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A process wide registry of named counters, gauges and latency histograms, so the cost of the publish and store
+ * paths can be read at runtime, from the /metrics url of the servlet or of the consumer. It is a thread-safe class.
+ */
+public class Metrics {
+
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Get the counter of a name, it is created on first use.
+     * @param name the counter name
+     * @return the counter
+     */
+    public static AtomicLong counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    /**
+     * Get the histogram of a name, it is created on first use.
+     * @param name the histogram name
+     * @return the histogram
+     */
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge which is read when a snapshot is taken, a later gauge of the same name replaces it.
+     * @param name the gauge name
+     * @param gauge the supplier of the current value
+     */
+    public static void gauge(String name, DoubleSupplier gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /**
+     * Take a snapshot of all counters, gauges and histograms.
+     * @return the metrics sorted by name
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, DoubleSupplier> entry : GAUGES.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsDouble());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,178 @@
+package service;
+
+import model.WordDictionary;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The round trips of the wire format: binary messages with inline words or word ids, legacy java serialized
+ * maps, and the malformed messages the decoder must refuse.
+ */
+public class WordCountCodecTest {
+
+    @Test
+    public void roundTripsABinaryMessage() {
+        HashMap<String, Integer> wordCount = sample();
+        byte[] body = WordCountCodec.get().encode(wordCount);
+        assertEquals(WordCountCodec.MAGIC, body[0]);
+        assertEquals(WordCountCodec.VERSION, body[1]);
+
+        assertEquals(wordCount, WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, body));
+        // a message without content type is sniffed by its magic byte
+        assertEquals(wordCount, WordCountCodec.decode(null, body));
+    }
+
+    @Test
+    public void roundTripsAnEmptyMessage() {
+        byte[] body = WordCountCodec.get().encode(new HashMap<>());
+        assertEquals(new HashMap<String, Integer>(), WordCountCodec.decodeBinary(body));
+    }
+
+    @Test
+    public void roundTripsWordIdsAndInlineWords() {
+        MapDictionary dictionary = new MapDictionary();
+        dictionary.put("the", 2);
+        dictionary.put("caf\u00e9", 300);
+        HashMap<String, Integer> wordCount = sample();
+
+        byte[] body = WordCountCodec.get().encode(wordCount, dictionary);
+        assertEquals(WordCountCodec.DICTIONARY_VERSION, body[1]);
+        assertEquals(wordCount, WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, body, dictionary));
+    }
+
+    @Test
+    public void leavesTheWordIdsToTheCaller() {
+        MapDictionary dictionary = new MapDictionary();
+        dictionary.put("the", 2);
+        byte[] body = WordCountCodec.get().encode(sample(), dictionary);
+
+        Map<String, Integer> words = new HashMap<>();
+        Map<Integer, Integer> ids = new HashMap<>();
+        WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, null, body, words, (id, count) -> ids.put(id, count));
+        assertEquals(1, ids.size());
+        assertEquals(Integer.valueOf(7), ids.get(2));
+        assertEquals(sample().size() - 1, words.size());
+    }
+
+    @Test
+    public void decodesALegacyMessage() {
+        HashMap<String, Integer> wordCount = sample();
+        byte[] body = serialize(wordCount);
+        assertEquals(wordCount, WordCountCodec.decode(null, body));
+        assertEquals(wordCount, WordCountCodec.decode(WordCountCodec.LEGACY_CONTENT_TYPE, body));
+
+        Map<String, Integer> merged = new HashMap<>();
+        merged.put("the", 1);
+        WordCountCodec.decode(WordCountCodec.LEGACY_CONTENT_TYPE, null, body, merged, (id, count) -> fail());
+        assertEquals(Integer.valueOf(8), merged.get("the"));
+    }
+
+    @Test
+    public void refusesAnyOtherSerializedClass() {
+        ArrayList<String> list = new ArrayList<>();
+        list.add("x");
+        assertRefused(null, serialize(list));
+    }
+
+    @Test
+    public void refusesMalformedMessages() {
+        byte[] body = WordCountCodec.get().encode(sample());
+        assertRefused(WordCountCodec.CONTENT_TYPE, new byte[]{WordCountCodec.MAGIC});
+        assertRefused(WordCountCodec.CONTENT_TYPE, new byte[]{WordCountCodec.MAGIC, 9, 0});
+        assertRefused(WordCountCodec.CONTENT_TYPE, new byte[]{0x12, WordCountCodec.VERSION, 0});
+        assertRefused(WordCountCodec.CONTENT_TYPE, new byte[]{WordCountCodec.MAGIC, WordCountCodec.VERSION,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0});
+        try {
+            WordCountCodec.decodeBinary(Arrays.copyOf(body, body.length - 3));
+            fail("a truncated message is decoded");
+        } catch (RuntimeException expected) {
+            // an index out of bounds or an illegal argument
+        }
+    }
+
+    @Test
+    public void needsADictionaryForWordIds() {
+        MapDictionary dictionary = new MapDictionary();
+        dictionary.put("the", 2);
+        byte[] body = WordCountCodec.get().encode(sample(), dictionary);
+        assertRefused(WordCountCodec.CONTENT_TYPE, body);
+    }
+
+    @Test
+    public void encodesSurrogatePairsAsFourBytes() {
+        HashMap<String, Integer> wordCount = new HashMap<>();
+        wordCount.put("\ud83d\ude00", 1);
+        byte[] body = WordCountCodec.get().encode(wordCount);
+        assertArrayEquals(new byte[]{WordCountCodec.MAGIC, WordCountCodec.VERSION, 1, 4,
+                (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, 1}, body);
+        assertEquals(wordCount, WordCountCodec.decodeBinary(body));
+    }
+
+    private static HashMap<String, Integer> sample() {
+        HashMap<String, Integer> wordCount = new HashMap<>();
+        wordCount.put("the", 7);
+        wordCount.put("caf\u00e9", 1);
+        wordCount.put("\u4e2d\u6587", 300);
+        wordCount.put("big", Integer.MAX_VALUE);
+        return wordCount;
+    }
+
+    private static byte[] serialize(Serializable object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertRefused(String contentType, byte[] body) {
+        try {
+            WordCountCodec.decode(contentType, body);
+            fail("the message is decoded");
+        } catch (IllegalArgumentException expected) {
+            // refused
+        }
+    }
+
+    /**
+     * A dictionary held in memory.
+     */
+    private static class MapDictionary extends WordDictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<Integer, String> words = new HashMap<>();
+
+        private MapDictionary() {
+            super(null, "test", 16, 1);
+        }
+
+        private void put(String word, int id) {
+            ids.put(word, id);
+            words.put(id, word);
+        }
+
+        @Override
+        public int idOf(String word) {
+            return ids.getOrDefault(word, 0);
+        }
+
+        @Override
+        public String wordOf(int id) {
+            return words.get(id);
+        }
+    }
+}
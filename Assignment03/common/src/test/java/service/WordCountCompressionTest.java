@@ -0,0 +1,114 @@
+package service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The deflate compression of the messages: round trips at every level, the identity encodings, and the truncated,
+ * unknown or oversized payloads the decoder must refuse.
+ */
+public class WordCountCompressionTest {
+
+    @Test
+    public void roundTripsACompressedMessage() {
+        HashMap<String, Integer> wordCount = new HashMap<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            wordCount.put("word" + random.nextInt(100000), 1 + random.nextInt(50));
+        }
+        WordCountCodec codec = WordCountCodec.get();
+        byte[] body = codec.encode(wordCount);
+        for (int level = 1; level <= 9; level++) {
+            byte[] compressed = codec.compress(body, level);
+            assertTrue(compressed.length < body.length);
+            assertEquals(wordCount, WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, WordCountCodec.DEFLATE,
+                    compressed, null));
+        }
+    }
+
+    @Test
+    public void roundTripsACompressedLegacyMessage() {
+        HashMap<String, Integer> wordCount = new HashMap<>();
+        wordCount.put("legacy", 3);
+        wordCount.put("frame", 1);
+        byte[] compressed = WordCountCodec.get().compress(serialize(wordCount), 6);
+        assertEquals(wordCount, WordCountCodec.decode(null, WordCountCodec.DEFLATE, compressed, null));
+    }
+
+    @Test
+    public void roundTripsRandomBytesOfManySizes() {
+        WordCountCodec codec = WordCountCodec.get();
+        Random random = new Random(9);
+        for (int size : new int[]{0, 1, 1023, 1024, 1025, 70000}) {
+            byte[] body = new byte[size];
+            random.nextBytes(body);
+            assertArrayEquals(body, codec.decompress(WordCountCodec.DEFLATE, codec.compress(body, 1)));
+        }
+    }
+
+    @Test
+    public void passesAnIdentityMessageThrough() {
+        byte[] body = {1, 2, 3};
+        WordCountCodec codec = WordCountCodec.get();
+        assertSame(body, codec.decompress(null, body));
+        assertSame(body, codec.decompress("", body));
+        assertSame(body, codec.decompress("identity", body));
+    }
+
+    @Test
+    public void refusesAnUnknownEncoding() {
+        assertRefused("gzip", new byte[]{1});
+    }
+
+    @Test
+    public void refusesATruncatedOrCorruptPayload() {
+        WordCountCodec codec = WordCountCodec.get();
+        byte[] compressed = codec.compress(codec.encode(new HashMap<>(Collections.singletonMap("a", 1))), 6);
+        assertRefused(WordCountCodec.DEFLATE, Arrays.copyOf(compressed, compressed.length / 2));
+        assertRefused(WordCountCodec.DEFLATE, new byte[]{0x12, 0x34, 0x56});
+    }
+
+    @Test
+    public void refusesAPayloadInflatingPastTheMaxSize() {
+        WordCountCodec codec = WordCountCodec.get();
+        byte[] bomb = codec.compress(new byte[WordCountCodec.MAX_MESSAGE_BYTES + 1], 9);
+        assertTrue(bomb.length < 64 * 1024);
+        assertRefused(WordCountCodec.DEFLATE, bomb);
+        // a payload of the max size is still inflated
+        assertEquals(WordCountCodec.MAX_MESSAGE_BYTES,
+                codec.decompress(WordCountCodec.DEFLATE, codec.compress(new byte[WordCountCodec.MAX_MESSAGE_BYTES], 9))
+                        .length);
+    }
+
+    private static byte[] serialize(HashMap<String, Integer> wordCount) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(wordCount);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertRefused(String contentEncoding, byte[] body) {
+        try {
+            WordCountCodec.get().decompress(contentEncoding, body);
+            fail("the payload is inflated");
+        } catch (IllegalArgumentException expected) {
+            // refused
+        }
+    }
+}
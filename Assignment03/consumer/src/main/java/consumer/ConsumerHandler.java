@@ -0,0 +1,131 @@
+package consumer;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.rabbitmq.client.*;
+import model.WordDictionary;
+import service.WordCountCodec;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * This is a consumer handler for single thread. And it will pull message from the queue
+ * and store the key-value pair in the hashmap. The deliveries are merged by a write-behind combiner,
+ * which acknowledges them once they are stored.
+ */
+public class ConsumerHandler extends Thread{
+
+    private static final int DEFAULT_ACK_WINDOW = 50;
+    // two windows, so the next window is delivered while one is stored
+    private static final int DEFAULT_PREFETCH = 2 * DEFAULT_ACK_WINDOW;
+    private static final int DEFAULT_MAX_WORDS = 10000;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private final Channel channel;
+    private final String queueName;
+    private final CyclicBarrier synk;
+    private final WordDictionary dictionary;
+    private final PartitionCoordinator coordinator;
+    private final WriteBehindCombiner combiner;
+    // the max number of unacknowledged deliveries of the channel
+    private final int prefetch;
+
+    /**
+     * Initialize the handler with the target hashmap for storing the word-count and the channel where to pull message.
+     * @param mapper the dynamo db mapper
+     * @param channel channel to pull message
+     * @param queueName target queue
+     * @param synk the synk barrier
+     * @param dictionary the shared dictionary resolving the word ids of the messages
+     */
+    public ConsumerHandler(
+            DynamoDBMapper mapper, Channel channel, String queueName, CyclicBarrier synk,
+            WordDictionary dictionary) {
+        this(mapper, channel, queueName, synk, dictionary, null);
+    }
+
+    /**
+     * Initialize the handler consuming either the single queue or the partitions assigned by a coordinator.
+     * @param mapper the dynamo db mapper
+     * @param channel channel to pull message
+     * @param queueName target queue
+     * @param synk the synk barrier
+     * @param dictionary the shared dictionary resolving the word ids of the messages
+     * @param coordinator the coordinator assigning the partition queues, null to consume the single queue
+     */
+    public ConsumerHandler(
+            DynamoDBMapper mapper, Channel channel, String queueName, CyclicBarrier synk,
+            WordDictionary dictionary, PartitionCoordinator coordinator) {
+        this(channel, queueName, synk, dictionary, coordinator,
+                new WriteBehindCombiner(new DynamoWordCountSink(mapper), dictionary, DEFAULT_MAX_WORDS,
+                        DEFAULT_ACK_WINDOW, DEFAULT_FLUSH_INTERVAL_MILLIS), DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Initialize the handler merging the deliveries of its partitions in a combiner of its own.
+     * @param channel channel to pull message
+     * @param queueName target queue
+     * @param synk the synk barrier
+     * @param dictionary the shared dictionary resolving the word ids of the messages
+     * @param coordinator the coordinator assigning the partition queues, null to consume the single queue
+     * @param combiner the write-behind combiner storing the word-count in dynamo
+     * @param prefetch the max number of unacknowledged deliveries of the channel
+     */
+    public ConsumerHandler(
+            Channel channel, String queueName, CyclicBarrier synk, WordDictionary dictionary,
+            PartitionCoordinator coordinator, WriteBehindCombiner combiner, int prefetch) {
+        this.channel = channel;
+        this.queueName = queueName;
+        this.synk = synk;
+        this.dictionary = dictionary;
+        this.coordinator = coordinator;
+        this.combiner = combiner;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void run() {
+
+        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
+            // the word ids are resolved by the combiner, so the delivery thread never reads the dictionary
+            HashMap<String, Integer> data = new HashMap<>();
+            IntCountMap ids = new IntCountMap();
+            long tag = delivery.getEnvelope().getDeliveryTag();
+            try {
+                WordCountCodec.decode(delivery.getProperties().getContentType(),
+                        delivery.getProperties().getContentEncoding(), delivery.getBody(), data, ids);
+            } catch (RuntimeException e) {
+                // a malformed message would fail every handler it is requeued to, so it is rejected for good
+                System.err.println("reject the malformed message " + tag + ": " + e);
+                channel.basicReject(tag, false);
+                return;
+            }
+            combiner.add(channel, tag, data, ids);
+        };
+
+        try {
+            // the deliveries stay unacknowledged until they are flushed, the prefetch bounds them per channel
+            channel.basicQos(prefetch, true);
+        } catch (IOException e) {
+            System.err.println("fail to set the prefetch");
+        }
+        try {
+            if (coordinator == null) {
+                channel.basicConsume(queueName, false, deliverCallback, consumerTag -> {});
+            } else {
+                // consume the partitions assigned by the coordinator
+                coordinator.register(new PartitionSubscription(channel,
+                        queue -> channel.basicConsume(queue, false, deliverCallback, consumerTag -> {})));
+            }
+        } catch (IOException e) {
+            System.err.println("fail to consume messages");
+        }
+        try {
+            synk.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,49 +1,53 @@
 package consumer;
 
 import com.rabbitmq.client.*;
-import model.JDBCDataSource;
-import org.apache.commons.lang3.SerializationUtils;
+import model.WordDictionary;
+import service.WordCountCodec;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.HashMap;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 
 /**
- * This is a consumer handler for single thread. And it will pull message from the queue
- * and store the key-value pair in the hashmap.
+ * This is a consumer handler for single thread. It pulls messages from the queue or its partitions, and the
+ * deliveries are merged by a write-behind combiner, which acknowledges them once they are upserted in mysql.
  */
 public class ConsumerHandlerv2 extends Thread{
 
-    private final JDBCDataSource dataSource;
     private final Channel channel;
     private final String queueName;
     private final CyclicBarrier synk;
+    private final WordDictionary dictionary;
+    private final PartitionCoordinator coordinator;
+    private final WriteBehindCombiner combiner;
+    // the max number of unacknowledged deliveries of the channel
+    private final int prefetch;
 
     /**
-     * Initialize the handler with the target hashmap for storing the word-count and the channel where to pull message.
-     * @param dataSource the thread-safe hashmap
+     * Initialize the handler merging the deliveries of its partitions in a combiner of its own.
      * @param channel channel to pull message
      * @param queueName target queue
      * @param synk the synk barrier
+     * @param dictionary the shared dictionary resolving the word ids of the messages, null if none carries word ids
+     * @param coordinator the coordinator assigning the partition queues, null to consume the single queue
+     * @param combiner the write-behind combiner upserting the word-count in mysql
+     * @param prefetch the max number of unacknowledged deliveries of the channel
      */
     public ConsumerHandlerv2(
-            JDBCDataSource dataSource, Channel channel, String queueName, CyclicBarrier synk) {
-        this.dataSource = dataSource;
+            Channel channel, String queueName, CyclicBarrier synk, WordDictionary dictionary,
+            PartitionCoordinator coordinator, WriteBehindCombiner combiner, int prefetch) {
         this.channel = channel;
         this.queueName = queueName;
         this.synk = synk;
+        this.dictionary = dictionary;
+        this.coordinator = coordinator;
+        this.combiner = combiner;
+        this.prefetch = prefetch;
     }
 
     @Override
     public void run() {
-        Connection conn = null;
-
-        String insertQueryStatement = "INSERT INTO wordsCount (word, count) VALUES (?, ?)";
 
         DefaultConsumer consumer = new DefaultConsumer(channel) {
             @Override
@@ -53,47 +57,42 @@ public class ConsumerHandlerv2 extends Thread{
                                        byte[] body)
                     throws IOException
             {
-                Map<String, Integer> data = SerializationUtils.deserialize(body);
-                long deliveryTag = envelope.getDeliveryTag();
-                System.out.println(deliveryTag);
-                channel.basicAck(deliveryTag, false);
-
-                Iterator<Map.Entry<String, Integer>> iter = data.entrySet().iterator();
-
-                Connection conn = null;
-                PreparedStatement preparedStatement = null;
-                try {
-                    conn = dataSource.getConnetion();
-                    preparedStatement = conn.prepareStatement(insertQueryStatement);
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-
-
-                while (iter.hasNext()) {
-                    Map.Entry<String, Integer> entry = iter.next();
-                    update(preparedStatement, entry.getKey(), entry.getValue());
-                }
-
+                // the word ids are resolved by the combiner, so the delivery thread never reads the dictionary
+                HashMap<String, Integer> data = new HashMap<>();
+                IntCountMap ids = new IntCountMap();
                 try {
-                    conn.close();
-                } catch (SQLException throwables) {
-                    throwables.printStackTrace();
+                    WordCountCodec.decode(properties.getContentType(), properties.getContentEncoding(), body, data,
+                            ids);
+                } catch (RuntimeException e) {
+                    // a malformed message would fail every handler it is requeued to, so it is rejected for good
+                    System.err.println("reject the malformed message " + envelope.getDeliveryTag() + ": " + e);
+                    channel.basicReject(envelope.getDeliveryTag(), false);
+                    return;
                 }
-
-
-                try {
-                    preparedStatement.close();
-                } catch (SQLException throwables) {
-                    throwables.printStackTrace();
+                if (dictionary == null && !ids.isEmpty()) {
+                    System.err.println("reject the message " + envelope.getDeliveryTag()
+                            + " with word ids, set message_format=dictionary to resolve them");
+                    channel.basicReject(envelope.getDeliveryTag(), false);
+                    return;
                 }
-
+                combiner.add(channel, envelope.getDeliveryTag(), data, ids);
             }
         };
 
         try {
-            channel.basicConsume(queueName, false, consumer);
-            System.out.println("consume");
+            // the deliveries stay unacknowledged until they are flushed, the prefetch bounds them per channel
+            channel.basicQos(prefetch, true);
+        } catch (IOException e) {
+            System.err.println("fail to set the prefetch");
+        }
+        try {
+            if (coordinator == null) {
+                channel.basicConsume(queueName, false, consumer);
+            } else {
+                // consume the partitions assigned by the coordinator
+                coordinator.register(new PartitionSubscription(channel,
+                        queue -> channel.basicConsume(queue, false, consumer)));
+            }
         } catch (IOException e) {
             System.err.println("fail to consume messages");
         }
@@ -104,21 +103,4 @@ public class ConsumerHandlerv2 extends Thread{
             e.printStackTrace();
         }
     }
-
-    private void update(PreparedStatement preparedStatement, String word, int count) {
-//        if (conn == null) {
-//            throw new IllegalArgumentException("can not take a null connection");
-//        }
-//        PreparedStatement preparedStatement = null;
-
-        try {
-
-            preparedStatement.setString(1, word);
-            preparedStatement.setInt(2, count);
-            // execute insert SQL statement
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("fail to execute this statement :" + e.getMessage());
-        }
-    }
 }
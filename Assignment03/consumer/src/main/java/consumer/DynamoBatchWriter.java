@@ -0,0 +1,149 @@
+package consumer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import model.WordCounterTable;
+import statistic.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A writer putting items in Dynamo by BatchWriteItem calls of at most 25 items, which run in parallel on a shared
+ * bounded pool. The unprocessed items of a call are sent again after a jittered exponential backoff, which is
+ * scheduled on the pool instead of sleeping, as are the calls failing with throttling or server errors.
+ * The calls, the throttling, the unprocessed items and the failures are counted in the process metrics, which
+ * the consumer serves at /metrics. It is a thread-safe class.
+ */
+public class DynamoBatchWriter {
+
+    // the max number of items in a batch write
+    private static final int MAX_BATCH = 25;
+
+    private final AmazonDynamoDB client;
+    private final ScheduledExecutorService executor;
+    private final int maxAttempts;
+    private final AtomicLong batches = Metrics.counter("dynamo_write_batches");
+    private final AtomicLong throttled = Metrics.counter("dynamo_write_throttled");
+    private final AtomicLong unprocessed = Metrics.counter("dynamo_write_unprocessed");
+    private final AtomicLong failed = Metrics.counter("dynamo_write_failed");
+
+    /**
+     * Create a writer.
+     * @param client the dynamo client
+     * @param executor the pool running the calls and their retries
+     * @param maxAttempts the max number of calls of a batch
+     */
+    public DynamoBatchWriter(AmazonDynamoDB client, ScheduledExecutorService executor, int maxAttempts) {
+        this.client = client;
+        this.executor = executor;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Put items in a table without blocking.
+     * @param tableName the table
+     * @param items the items
+     * @return a future completed once every item is written, or completed exceptionally if a batch is not
+     */
+    public CompletableFuture<Void> write(String tableName, List<Map<String, AttributeValue>> items) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(items.size() / MAX_BATCH + 1);
+        for (int from = 0; from < items.size(); from += MAX_BATCH) {
+            List<WriteRequest> batch = new ArrayList<>(MAX_BATCH);
+            for (Map<String, AttributeValue> item : items.subList(from, Math.min(from + MAX_BATCH, items.size()))) {
+                batch.add(new WriteRequest(new PutRequest(item)));
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            executor.execute(() -> send(Collections.singletonMap(tableName, batch), 1, future));
+            futures.add(future);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Get the number of batch calls sent, retries included.
+     * @return the number of calls
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Get the number of batch calls rejected by throttling, the unprocessed items are counted apart.
+     * @return the number of throttled calls
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * Get the number of items returned unprocessed, which are sent again.
+     * @return the number of unprocessed items
+     */
+    public long getUnprocessed() {
+        return unprocessed.get();
+    }
+
+    /**
+     * Get the number of batches given up.
+     * @return the number of failed batches
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("batches=%d, throttled=%d, unprocessed=%d, failed=%d",
+                getBatches(), getThrottled(), getUnprocessed(), getFailed());
+    }
+
+    private void send(Map<String, List<WriteRequest>> request, int attempt, CompletableFuture<Void> future) {
+        batches.incrementAndGet();
+        Map<String, List<WriteRequest>> left;
+        try {
+            BatchWriteItemResult result = client.batchWriteItem(request);
+            left = result.getUnprocessedItems();
+            if (left == null || left.isEmpty()) {
+                future.complete(null);
+                return;
+            }
+            for (List<WriteRequest> requests : left.values()) {
+                unprocessed.addAndGet(requests.size());
+            }
+        } catch (AmazonServiceException e) {
+            if (!WordCounterTable.isRetryable(e)) {
+                failed.incrementAndGet();
+                future.completeExceptionally(e);
+                return;
+            }
+            if (e.getStatusCode() < 500) {
+                throttled.incrementAndGet();
+            }
+            left = request;
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            future.completeExceptionally(e);
+            return;
+        }
+        if (attempt >= maxAttempts) {
+            failed.incrementAndGet();
+            future.completeExceptionally(new IllegalStateException("fail to write a batch after " + attempt
+                    + " attempts"));
+            return;
+        }
+        Map<String, List<WriteRequest>> retry = left;
+        executor.schedule(() -> send(retry, attempt + 1, future), WordCounterTable.backoff(attempt),
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,122 @@
+package consumer;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import model.WordCount;
+import model.WordCounterTable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A sink storing the merged word-count in Dynamo, one item per word and count. The items are written either by
+ * the mapper, or by a batch writer splitting them into parallel batches. The id of an item is derived from its
+ * word and an id drawn once per flush, so a flush failing part way is stored again with a backoff, overwriting
+ * the items already written instead of adding them twice. Only a flush given up after its attempts is requeued
+ * by the combiner, and its items already written are then counted again. It is a thread-safe class.
+ */
+public class DynamoWordCountSink implements WriteBehindCombiner.Sink {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private final DynamoDBMapper mapper;
+    private final DynamoBatchWriter writer;
+    private final String tableName;
+    // the max number of times a flush is written
+    private final int maxAttempts;
+
+    /**
+     * Create a sink over the word-count table written by the mapper.
+     * @param mapper the dynamo db mapper
+     */
+    public DynamoWordCountSink(DynamoDBMapper mapper) {
+        this.mapper = mapper;
+        this.writer = null;
+        this.tableName = null;
+        this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    }
+
+    /**
+     * Create a sink over a word-count table written by a batch writer.
+     * @param writer the batch writer
+     * @param tableName the word-count table
+     * @param maxAttempts the max number of times a flush is written
+     */
+    public DynamoWordCountSink(DynamoBatchWriter writer, String tableName, int maxAttempts) {
+        this.mapper = null;
+        this.writer = writer;
+        this.tableName = tableName;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public void store(Map<String, Integer> wordCount) throws Exception {
+        // the items of the flush keep their ids whatever the attempt
+        String flushId = UUID.randomUUID().toString();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(flushId, wordCount);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                System.err.println("fail to store the word count, write it again: " + e);
+            }
+            Thread.sleep(WordCounterTable.backoff(attempt));
+        }
+    }
+
+    private void write(String flushId, Map<String, Integer> wordCount) throws Exception {
+        if (writer != null) {
+            writer.write(tableName, toItems(flushId, wordCount)).get();
+            return;
+        }
+        // construct the list for batch write
+        List<WordCount> list = new ArrayList<WordCount>(wordCount.size());
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            if (entry.getKey().isEmpty()) {
+                continue;
+            }
+            WordCount item = new WordCount();
+            item.setId(itemId(flushId, entry.getKey()));
+            item.setWord(entry.getKey());
+            item.setCount(entry.getValue());
+            list.add(item);
+        }
+        List<DynamoDBMapper.FailedBatch> failed = mapper.batchSave(list);
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("fail to store " + failed.size() + " batches of word count",
+                    failed.get(0).getException());
+        }
+    }
+
+    /**
+     * Build the items of the word-count the way the mapper saves a {@link WordCount}.
+     */
+    private static List<Map<String, AttributeValue>> toItems(String flushId, Map<String, Integer> wordCount) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>(wordCount.size());
+        for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+            if (entry.getKey().isEmpty()) {
+                continue;
+            }
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("ID", new AttributeValue(itemId(flushId, entry.getKey())));
+            item.put("word", new AttributeValue(entry.getKey()));
+            item.put("count", new AttributeValue().withN("" + entry.getValue()));
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Get the id of the item of a word in a flush, the same every time the flush is written.
+     */
+    private static String itemId(String flushId, String word) {
+        return UUID.nameUUIDFromBytes((flushId + '\n' + word).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
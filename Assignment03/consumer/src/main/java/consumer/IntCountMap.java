@@ -0,0 +1,141 @@
+package consumer;
+
+import model.WordDictionary;
+import service.WordCountCodec;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A map of word ids to their summed counts, kept in open addressed int arrays so the deliveries are aggregated on
+ * their ids without boxing. The ids are resolved to words only once, by a bulk lookup in the dictionary when the
+ * counts are stored. It is not a thread-safe class.
+ */
+public class IntCountMap implements WordCountCodec.IdCounts {
+
+    // the key of a free slot, ids are never negative
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    /**
+     * Create an empty map.
+     */
+    public IntCountMap() {
+        this(16);
+    }
+
+    /**
+     * Create an empty map sized for a number of ids.
+     * @param expected the expected number of ids
+     */
+    public IntCountMap(int expected) {
+        int capacity = 8;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.counts = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    @Override
+    public void add(int id, int count) {
+        int mask = keys.length - 1;
+        int i = mix(id) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == id) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        counts[i] = count;
+        // keep the table at most half full
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Add all the counts of another map.
+     * @param other the other map
+     */
+    public void addAll(IntCountMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != FREE) {
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the number of ids.
+     * @return the number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the map has no id.
+     * @return true if it has no id and vice versa
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Resolve the ids to their words with one bulk lookup and merge their counts into a word-count map.
+     * @param dictionary the shared dictionary of word ids
+     * @param wordCount the word-count the counts are merged into
+     * @return the number of ids the dictionary does not know, whose counts are left out
+     */
+    public int resolve(WordDictionary dictionary, Map<String, Integer> wordCount) throws InterruptedException {
+        if (size == 0) {
+            return 0;
+        }
+        int[] ids = new int[size];
+        int[] values = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                ids[n] = keys[i];
+                values[n++] = counts[i];
+            }
+        }
+        String[] words = dictionary.wordsOf(ids);
+        int unknown = 0;
+        for (int i = 0; i < n; i++) {
+            if (words[i] == null) {
+                unknown++;
+            } else {
+                wordCount.merge(words[i], values[i], Integer::sum);
+            }
+        }
+        return unknown;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length << 1];
+        counts = new int[oldKeys.length << 1];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                add(oldKeys[i], oldCounts[i]);
+            }
+        }
+    }
+
+    private static int mix(int id) {
+        // spread the dense ids, which are allocated in sequence, over the table
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
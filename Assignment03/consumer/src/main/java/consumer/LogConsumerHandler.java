@@ -0,0 +1,82 @@
+package consumer;
+
+import model.WordDictionary;
+import service.WordCountCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This is a consumer handler tailing the word-count log written by the servlet on the same host. It reads the
+ * messages in batches, merges them and stores them in a sink, and the offset is committed once a batch is stored,
+ * so a message is stored at least once. A batch failing to be stored is read again from the committed offset,
+ * while a message failing to be decoded is skipped, as reading it again would not change it.
+ */
+public class LogConsumerHandler extends Thread {
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final WriteBehindCombiner.Sink sink;
+    private final SegmentLogReader reader;
+    private final WordDictionary dictionary;
+    private final int batchSize;
+
+    /**
+     * Initialize the handler with the reader of the log.
+     * @param sink the store of the merged word-count
+     * @param reader the log reader
+     * @param dictionary the shared dictionary resolving the word ids of the messages
+     * @param batchSize the max number of messages stored in one batch
+     */
+    public LogConsumerHandler(WriteBehindCombiner.Sink sink, SegmentLogReader reader, WordDictionary dictionary,
+                              int batchSize) {
+        this.sink = sink;
+        this.reader = reader;
+        this.dictionary = dictionary;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> bodies = new ArrayList<>(batchSize);
+        while (!isInterrupted()) {
+            try {
+                if (reader.poll(bodies, batchSize) == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+                store(bodies);
+                reader.commit();
+            } catch (Exception e) {
+                System.err.println("fail to consume the word count log");
+                reader.rewind();
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+            bodies.clear();
+        }
+        reader.close();
+    }
+
+    private void store(List<byte[]> bodies) throws Exception {
+        HashMap<String, Integer> merged = new HashMap<>();
+        IntCountMap ids = new IntCountMap();
+        for (byte[] body : bodies) {
+            try {
+                // the log is written in the binary format only
+                WordCountCodec.decode(WordCountCodec.CONTENT_TYPE, null, body, merged, ids);
+            } catch (RuntimeException e) {
+                // a record passing its crc but failing to decode would fail again, so it is skipped and committed
+                System.err.println("skip the undecodable word count record of " + body.length + " bytes: " + e);
+            }
+        }
+        // the word ids of the whole batch are resolved at once
+        int unknown = ids.resolve(dictionary, merged);
+        if (unknown > 0) {
+            System.err.println("drop the count of " + unknown + " unknown word ids");
+        }
+        sink.store(merged);
+    }
+}
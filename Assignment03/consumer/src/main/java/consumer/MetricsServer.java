@@ -0,0 +1,48 @@
+package consumer;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import statistic.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * A small http server giving the metrics of a consumer process as json at /metrics, in the format of the
+ * /metrics url of the servlet. A consumer failing to bind the port keeps running without it.
+ */
+public class MetricsServer {
+
+    private static final String METRICS_PATH = "/metrics";
+
+    private MetricsServer() {
+    }
+
+    /**
+     * Serve the metrics on the metrics port, a port of 0 disables the server.
+     * @param properties the consumer properties
+     */
+    static void start(Properties properties) {
+        int port = Integer.parseInt(properties.getProperty("metrics_port", "9091"));
+        if (port <= 0) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext(METRICS_PATH, exchange -> {
+                byte[] body = new Gson().toJson(Metrics.snapshot()).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        } catch (IOException e) {
+            System.err.println("fail to serve the metrics on port " + port + ": " + e.getMessage());
+        }
+    }
+}
@@ -2,15 +2,22 @@ package consumer;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import model.WordCounterTable;
+import model.WordDictionary;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Properties;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -36,19 +43,58 @@ public class MultiThreadedConsumer {
         factory.setUsername(properties.getProperty("username"));
         factory.setPassword(properties.getProperty("password"));
 
-        // create dynamoDB mapper
+        // serve the metrics of the consumer
+        MetricsServer.start(properties);
+
+        // create dynamoDB client
         AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().withRegion("us-east-1")
                 .build();
-        DynamoDBMapper mapper = new DynamoDBMapper(client);
+        // the shared dictionary of word ids, only read when a message carries word ids
+        WordDictionary dictionary = createDictionary(properties, client);
+
+        // the word-count is stored either as items or as one counter per word
+        WriteBehindCombiner.Sink sink;
+        if ("counter".equals(properties.getProperty("storage_mode", "items"))) {
+            sink = createCounterTable(properties, client)::add;
+        } else {
+            sink = new DynamoWordCountSink(createBatchWriter(properties, client),
+                    properties.getProperty("item_table", "wordsCount"),
+                    Integer.parseInt(properties.getProperty("dynamo_flush_max_attempts", "3")));
+        }
+
+        // the servlet on this host appends the word-count to a local log, which is read in order by one handler
+        if ("log".equals(properties.getProperty("transport", "rabbitmq"))) {
+            Path dir = Paths.get(properties.getProperty("log_dir", "wordcount-log"));
+            SegmentLogReader reader = new SegmentLogReader(dir, properties.getProperty("log_consumer_name", "dynamo"));
+            int batchSize = Integer.parseInt(properties.getProperty("log_batch_size", "64"));
+            new LogConsumerHandler(sink, reader, dictionary, batchSize).start();
+            return;
+        }
 
         CyclicBarrier synk = new CyclicBarrier(maxThreads + 1);
 
         try {
             Connection  connection = factory.newConnection();
+            // with partitions every handler consumes the partition queues assigned to this process
+            PartitionCoordinator coordinator = null;
+            int partitions = Integer.parseInt(properties.getProperty("mq_partitions", "0"));
+            if (partitions > 0) {
+                int maxMembers = Integer.parseInt(properties.getProperty("consumer_max_members", "16"));
+                long interval = Long.parseLong(properties.getProperty("rebalance_interval_ms", "5000"));
+                coordinator = new PartitionCoordinator(connection, queueName, partitions, maxMembers, interval);
+                coordinator.start();
+            }
+            // every handler merges the deliveries of its partitions in a write-behind buffer of its own,
+            // acknowledged once it is stored
+            int prefetch = prefetch(properties);
+            ScheduledExecutorService flusher = WriteBehindCombiner.newFlusher();
+            ExecutorService storer = WriteBehindCombiner.newStorer(
+                    Integer.parseInt(properties.getProperty("combiner_store_threads", "2")));
             for (int i = 0; i < maxThreads; i++) {
                 Channel channel = connection.createChannel();
                 channel.queueDeclare(queueName, false, false, false, null);
-                new ConsumerHandler(mapper, channel, queueName, synk).start();
+                WriteBehindCombiner combiner = createCombiner(properties, sink, dictionary, prefetch, flusher, storer);
+                new ConsumerHandler(channel, queueName, synk, dictionary, coordinator, combiner, prefetch).start();
             }
             synk.await();
         } catch (IOException | TimeoutException e) {
@@ -61,4 +107,85 @@ public class MultiThreadedConsumer {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Get the prefetch of a handler channel, two ack windows by default so the next window is delivered while
+     * one is stored.
+     * @param properties the consumer properties
+     * @return the max number of unacknowledged deliveries of a channel
+     */
+    static int prefetch(Properties properties) {
+        int ackWindow = Integer.parseInt(properties.getProperty("consumer_ack_window", "50"));
+        return Integer.parseInt(properties.getProperty("consumer_prefetch", "" + 2 * ackWindow));
+    }
+
+    /**
+     * Create the write-behind combiner of a handler. It is flushed once its channel has an ack window of deliveries,
+     * which is at most the prefetch so a window always fills, or on a timer, and the combiners of all the handlers
+     * share the timer and the store pool.
+     * @param properties the consumer properties
+     * @param sink the store of the merged word-count
+     * @param dictionary the shared dictionary resolving the word ids of the deliveries
+     * @param prefetch the max number of unacknowledged deliveries of the channel
+     * @param flusher the shared flush timer
+     * @param storer the shared pool storing the flushes
+     * @return the combiner
+     */
+    static WriteBehindCombiner createCombiner(Properties properties, WriteBehindCombiner.Sink sink,
+                                              WordDictionary dictionary, int prefetch,
+                                              ScheduledExecutorService flusher, ExecutorService storer) {
+        int maxWords = Integer.parseInt(properties.getProperty("combiner_max_words", "10000"));
+        int ackWindow = Math.min(Integer.parseInt(properties.getProperty("consumer_ack_window", "50")), prefetch);
+        long flushInterval = Long.parseLong(properties.getProperty("consumer_flush_interval_ms", "100"));
+        return new WriteBehindCombiner(sink, dictionary, maxWords, ackWindow, flushInterval, flusher, storer);
+    }
+
+    /**
+     * Create the shared dictionary of word ids, only read when a message carries word ids. The consumers only
+     * resolve ids, so a single thread assigns ids by default.
+     * @param properties the consumer properties
+     * @param client the dynamo client
+     * @return the dictionary
+     */
+    static WordDictionary createDictionary(Properties properties, AmazonDynamoDB client) {
+        return new WordDictionary(client, properties.getProperty("dictionary_table", "wordDictionary"),
+                Integer.parseInt(properties.getProperty("dictionary_max_cached", "1000000")),
+                Integer.parseInt(properties.getProperty("dictionary_assign_threads", "1")));
+    }
+
+    /**
+     * Create the table of the word counters.
+     * @param properties the consumer properties
+     * @param client the dynamo client
+     * @return the counter table
+     */
+    static WordCounterTable createCounterTable(Properties properties, AmazonDynamoDB client) {
+        return new WordCounterTable(client, properties.getProperty("counter_table", "wordCounter"),
+                Integer.parseInt(properties.getProperty("counter_threads", "16")),
+                Integer.parseInt(properties.getProperty("counter_max_attempts", "5")),
+                Integer.parseInt(properties.getProperty("counter_hot_updates_per_s", "500")),
+                Integer.parseInt(properties.getProperty("counter_max_shards", "16")));
+    }
+
+    /**
+     * Create the batch writer of the word-count items, which runs the batches on a shared pool and logs its
+     * throttling periodically on top of the metrics.
+     * @param properties the consumer properties
+     * @param client the dynamo client
+     * @return the batch writer
+     */
+    static DynamoBatchWriter createBatchWriter(Properties properties, AmazonDynamoDB client) {
+        int threads = Integer.parseInt(properties.getProperty("dynamo_write_threads", "8"));
+        int maxAttempts = Integer.parseInt(properties.getProperty("dynamo_write_max_attempts", "8"));
+        long reportInterval = Long.parseLong(properties.getProperty("dynamo_write_report_interval_s", "60"));
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "dynamo-batch-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        DynamoBatchWriter writer = new DynamoBatchWriter(client, executor, maxAttempts);
+        executor.scheduleAtFixedRate(() -> System.out.println("dynamo batch writer: " + writer), reportInterval,
+                reportInterval, TimeUnit.SECONDS);
+        return writer;
+    }
 }
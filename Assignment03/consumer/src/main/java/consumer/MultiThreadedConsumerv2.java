@@ -1,13 +1,20 @@
 package consumer;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.ConnectionFactory;
 import model.JDBCDataSource;
+import model.WordCountDao;
+import model.WordDictionary;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.Properties;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -33,18 +40,52 @@ public class MultiThreadedConsumerv2 {
         factory.setUsername(properties.getProperty("username"));
         factory.setPassword(properties.getProperty("password"));
 
+        // serve the metrics of the consumer
+        MetricsServer.start(properties);
+
         // set Mysql connection
         JDBCDataSource datasource = new JDBCDataSource();
+        // the upserts need a unique key on word, a table of the former layout is migrated first
+        WordCountDao dao = new WordCountDao(datasource);
+        try {
+            dao.checkSchema();
+        } catch (SQLException e) {
+            throw new IOException("fail to read the schema of wordsCount", e);
+        }
+
+        // the shared dictionary of word ids, only built when the servlet sends word ids so mysql alone needs no aws
+        WordDictionary dictionary = null;
+        if ("dictionary".equals(properties.getProperty("message_format", "java"))) {
+            AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().withRegion("us-east-1")
+                    .build();
+            dictionary = MultiThreadedConsumer.createDictionary(properties, client);
+        }
 
         CyclicBarrier synk = new CyclicBarrier(maxThreads + 1);
         try {
             Connection connection = factory.newConnection();
+            // with partitions every handler consumes the partition queues assigned to this process
+            PartitionCoordinator coordinator = null;
+            int partitions = Integer.parseInt(properties.getProperty("mq_partitions", "0"));
+            if (partitions > 0) {
+                int maxMembers = Integer.parseInt(properties.getProperty("consumer_max_members", "16"));
+                long interval = Long.parseLong(properties.getProperty("rebalance_interval_ms", "5000"));
+                coordinator = new PartitionCoordinator(connection, queueName, partitions, maxMembers, interval);
+                coordinator.start();
+            }
+            // every handler merges the deliveries of its partitions in a write-behind buffer of its own,
+            // acknowledged once it is upserted
+            int prefetch = MultiThreadedConsumer.prefetch(properties);
+            ScheduledExecutorService flusher = WriteBehindCombiner.newFlusher();
+            ExecutorService storer = WriteBehindCombiner.newStorer(
+                    Integer.parseInt(properties.getProperty("combiner_store_threads", "2")));
             for (int i = 0; i < maxThreads; i++) {
                 Channel channel = connection.createChannel();
-                channel.basicQos(1);
                 channel.queueDeclare(queueName, false, false, false, null);
+                WriteBehindCombiner combiner = MultiThreadedConsumer.createCombiner(properties, dao::upsert,
+                        dictionary, prefetch, flusher, storer);
 
-                new ConsumerHandlerv2(datasource, channel, queueName, synk).start();
+                new ConsumerHandlerv2(channel, queueName, synk, dictionary, coordinator, combiner, prefetch).start();
             }
             synk.await();
         } catch (IOException | TimeoutException e) {
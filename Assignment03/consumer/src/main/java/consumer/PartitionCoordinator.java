@@ -0,0 +1,190 @@
+package consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.ShutdownSignalException;
+import model.PartitionTopology;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class assigns the partition queues to the consumer processes and to the handlers within a process.
+ * Every process claims a member slot on the broker by holding the exclusive consumer of an auto-delete member
+ * queue, so a slot is freed as soon as its process goes away. The live members are found by the consumer count
+ * of the member queues, which is read by passive declares so a free slot is never declared. The member of rank r
+ * among m members owns the partitions p with p % m == r, and it spreads them over its handlers. The assignment is
+ * recomputed periodically, so the partitions rebalance when a consumer process joins or leaves. As the partition
+ * queues have a single active consumer, a partition being handed over is never consumed by two processes at once.
+ * It is a thread-safe class.
+ */
+public class PartitionCoordinator {
+
+    private final Connection connection;
+    private final String queueName;
+    private final int partitions;
+    private final int maxMembers;
+    private final long rebalanceIntervalMillis;
+    private final List<PartitionSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    // the channel holding the member slot and the channel probing the other slots
+    private Channel membership;
+    private Channel probe;
+    private int slot = -1;
+    private List<String> owned = Collections.emptyList();
+
+    /**
+     * Create a coordinator, it takes part in the assignment once started.
+     * @param connection the rabbitmq connection of the process
+     * @param queueName the base name of the queues
+     * @param partitions the number of partitions
+     * @param maxMembers the max number of consumer processes
+     * @param rebalanceIntervalMillis the interval between two checks of the members
+     */
+    public PartitionCoordinator(Connection connection, String queueName, int partitions, int maxMembers,
+                                long rebalanceIntervalMillis) {
+        this.connection = connection;
+        this.queueName = queueName;
+        this.partitions = partitions;
+        this.maxMembers = maxMembers;
+        this.rebalanceIntervalMillis = rebalanceIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "partition-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Declare the partitions, claim a member slot and start rebalancing.
+     */
+    public void start() throws IOException {
+        PartitionTopology.declare(probe(), queueName, partitions);
+        claim();
+        scheduler.scheduleWithFixedDelay(this::rebalance, 0, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add the subscription of a handler, the partitions are spread again over all handlers.
+     * @param subscription the subscription of the handler
+     */
+    public void register(PartitionSubscription subscription) {
+        subscriptions.add(subscription);
+        scheduler.execute(this::rebalance);
+    }
+
+    /**
+     * Stop rebalancing and give the member slot up.
+     */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (membership != null && membership.isOpen()) {
+                membership.close();
+            }
+        } catch (Exception e) {
+            System.err.println("fail to leave the consumer group");
+        }
+    }
+
+    /**
+     * Claim the first free member slot.
+     */
+    private void claim() throws IOException {
+        for (int i = 0; i < maxMembers; i++) {
+            Channel channel = connection.createChannel();
+            try {
+                channel.queueDeclare(member(i), false, false, true, null);
+                // an exclusive consumer is refused while another process holds the slot
+                channel.basicConsume(member(i), true, "", false, true, null, new DefaultConsumer(channel));
+                this.membership = channel;
+                this.slot = i;
+                return;
+            } catch (IOException e) {
+                // the broker has closed the channel, try the next slot
+            }
+        }
+        throw new IOException("no free member slot among " + maxMembers);
+    }
+
+    private void rebalance() {
+        try {
+            List<Integer> live = new ArrayList<>();
+            for (int i = 0; i < maxMembers; i++) {
+                if (i == slot || isLive(i)) {
+                    live.add(i);
+                }
+            }
+            int members = live.size();
+            List<String> queues = new ArrayList<>();
+            for (int p = live.indexOf(slot); p < partitions; p += members) {
+                queues.add(PartitionTopology.queue(queueName, p));
+            }
+            if (!queues.equals(owned)) {
+                System.out.println(String.format("member %d of %d owns %s", slot, members, queues));
+                owned = queues;
+            }
+
+            // spread the owned partitions over the handlers
+            int handlers = subscriptions.size();
+            for (int j = 0; j < handlers; j++) {
+                Set<String> assigned = new HashSet<>();
+                for (int k = j; k < queues.size(); k += handlers) {
+                    assigned.add(queues.get(k));
+                }
+                subscriptions.get(j).assign(assigned);
+            }
+        } catch (IOException | ShutdownSignalException e) {
+            System.err.println("fail to rebalance the partitions");
+            probe = null;
+        }
+    }
+
+    /**
+     * Check if a member slot is held, by a passive declare so probing never creates a member queue.
+     * @param i the member slot
+     * @return true if a process holds the slot and vice versa
+     */
+    private boolean isLive(int i) throws IOException {
+        try {
+            return probe().queueDeclarePassive(member(i)).getConsumerCount() > 0;
+        } catch (IOException e) {
+            if (isNotFound(e)) {
+                // the member queue is gone with its process, and the broker has closed the probe channel
+                probe = null;
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isNotFound(IOException e) {
+        if (!(e.getCause() instanceof ShutdownSignalException)) {
+            return false;
+        }
+        Object reason = ((ShutdownSignalException) e.getCause()).getReason();
+        return reason instanceof AMQP.Channel.Close && ((AMQP.Channel.Close) reason).getReplyCode() == AMQP.NOT_FOUND;
+    }
+
+    private Channel probe() throws IOException {
+        if (probe == null || !probe.isOpen()) {
+            probe = connection.createChannel();
+        }
+        return probe;
+    }
+
+    private String member(int i) {
+        return queueName + ".member." + i;
+    }
+}
@@ -0,0 +1,64 @@
+package consumer;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The partition queues consumed by one handler on its channel. The coordinator assigns the partitions and the
+ * subscription starts and cancels the consumers to match, so the messages of a partition are always handled on
+ * the single dispatch thread of this channel. It is a thread-safe class.
+ */
+public class PartitionSubscription {
+
+    /**
+     * Start a consumer of the handler on a queue.
+     */
+    public interface Subscriber {
+        /**
+         * Consume a queue.
+         * @param queue the queue
+         * @return the consumer tag
+         */
+        String subscribe(String queue) throws IOException;
+    }
+
+    private final Channel channel;
+    private final Subscriber subscriber;
+    // the consumer tag of every queue consumed
+    private final Map<String, String> tags = new HashMap<>();
+
+    /**
+     * Create a subscription with no partition.
+     * @param channel the channel of the handler
+     * @param subscriber the handler consuming a queue
+     */
+    public PartitionSubscription(Channel channel, Subscriber subscriber) {
+        this.channel = channel;
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * Consume exactly the given queues, the consumers of the queues no longer assigned are cancelled.
+     * @param queues the queues assigned to the handler
+     */
+    public synchronized void assign(Set<String> queues) throws IOException {
+        Iterator<Map.Entry<String, String>> iter = tags.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, String> entry = iter.next();
+            if (!queues.contains(entry.getKey())) {
+                channel.basicCancel(entry.getValue());
+                iter.remove();
+            }
+        }
+        for (String queue : queues) {
+            if (!tags.containsKey(queue)) {
+                tags.put(queue, subscriber.subscribe(queue));
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package consumer;
+
+import model.SegmentLog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A reader tailing the word-count log written by the servlet on the same host, see {@link SegmentLog}.
+ * A reader has a name and its offset, the segment index and the position in it, is kept in the file
+ * "name.offset" of the log directory, which is replaced atomically on commit. A lock file makes sure a name
+ * is read by one process at a time. The retention keeps the segments a committed reader has not read yet, but a
+ * new reader whose segment was deleted before its first commit carries on from the earliest segment left. It is not a thread-safe class, a reader is used by a single consumer thread.
+ */
+public class SegmentLogReader {
+
+    private final Path dir;
+    private final Path offsetFile;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final CRC32 crc = new CRC32();
+
+    // the committed offset
+    private long committedIndex;
+    private int committedPosition;
+    // the offset of the next record to read
+    private long index;
+    private int position;
+    private MappedByteBuffer segment;
+
+    /**
+     * Open a reader at its committed offset, or at the start of the log for a new name.
+     * @param dir the log directory
+     * @param name the name of the reader
+     */
+    public SegmentLogReader(Path dir, String name) throws IOException {
+        this.dir = dir;
+        this.offsetFile = SegmentLog.offset(dir, name);
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve(name + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("the log is read by another process as " + name);
+        }
+        if (Files.exists(offsetFile)) {
+            try (InputStream in = Files.newInputStream(offsetFile)) {
+                DataInputStream data = new DataInputStream(in);
+                this.committedIndex = data.readLong();
+                this.committedPosition = data.readInt();
+            }
+        } else {
+            List<Long> segments = SegmentLog.segments(dir);
+            this.committedIndex = segments.isEmpty() ? 0 : segments.get(0);
+        }
+        rewind();
+    }
+
+    /**
+     * Read the next complete records of the log.
+     * @param bodies the list the messages are added to
+     * @param max the max number of messages read
+     * @return the number of messages read, 0 if the reader is at the end of the log
+     */
+    public int poll(List<byte[]> bodies, int max) throws IOException {
+        int count = 0;
+        while (count < max) {
+            if (segment == null && !open()) {
+                break;
+            }
+            if (position + 4 > segment.capacity()) {
+                break;
+            }
+            int length = segment.getInt(position);
+            if (length == SegmentLog.END) {
+                // the writer moved to the next segment
+                index++;
+                position = 0;
+                segment = null;
+                continue;
+            }
+            if (length <= 0 || SegmentLog.next(position, length) > segment.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer view = segment.duplicate();
+            view.position(position + SegmentLog.HEADER);
+            view.get(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != segment.getInt(position + 4)) {
+                // the record is being written
+                break;
+            }
+            bodies.add(body);
+            position = SegmentLog.next(position, length);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Make the offset of the records read so far durable, a restarted reader carries on after them.
+     */
+    public void commit() throws IOException {
+        Path temp = dir.resolve(offsetFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeLong(index);
+            data.writeInt(position);
+            data.flush();
+        }
+        Files.move(temp, offsetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.committedIndex = index;
+        this.committedPosition = position;
+    }
+
+    /**
+     * Go back to the committed offset, the records read since are read again.
+     */
+    public void rewind() {
+        this.index = committedIndex;
+        this.position = committedPosition;
+        this.segment = null;
+    }
+
+    /**
+     * Release the name of the reader.
+     */
+    public void close() {
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("fail to release the log reader");
+        }
+    }
+
+    /**
+     * Map the current segment, or the earliest one left if it was deleted.
+     * @return true if a segment is mapped
+     */
+    private boolean open() throws IOException {
+        Path file = SegmentLog.segment(dir, index);
+        try {
+            long size = Files.size(file);
+            if (size == 0) {
+                // the writer is creating the segment
+                return false;
+            }
+            // the writer maps whole segments, so the file size is the segment size
+            this.segment = SegmentLog.map(file, (int) size, false);
+            return true;
+        } catch (NoSuchFileException e) {
+            List<Long> segments = SegmentLog.segments(dir);
+            if (!segments.isEmpty() && segments.get(0) > index) {
+                System.err.println("the log segment " + index + " expired, skip to " + segments.get(0));
+                index = segments.get(0);
+                position = 0;
+                return open();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package consumer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import model.WordCounterTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a tool compacting the word-count items, one per word and message, into the counters of the counter
+ * table. The item table is scanned in parallel segments, and every page is summed per word, added to the counters
+ * and then deleted, so the tool can be stopped and started again, and it may run while the consumers write to
+ * the counters. A page failing between its counters and its deletes is counted again by the next run.
+ */
+public class WordCountCompaction {
+
+    private static final String ID = "ID";
+    // the max number of items in a batch write
+    private static final int MAX_BATCH = 25;
+
+    private final AmazonDynamoDB client;
+    private final String itemTable;
+    private final WordCounterTable counters;
+    private final AtomicLong compacted = new AtomicLong();
+
+    /**
+     * Create a compaction of an item table.
+     * @param client the dynamo client
+     * @param itemTable the table of the word-count items
+     * @param counters the counter table
+     */
+    public WordCountCompaction(AmazonDynamoDB client, String itemTable, WordCounterTable counters) {
+        this.client = client;
+        this.itemTable = itemTable;
+        this.counters = counters;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int segments = args == null || args.length == 0 ? 4 : Integer.parseInt(args[0]);
+
+        Properties properties = new Properties();
+        properties.load(WordCountCompaction.class.getClassLoader().getResourceAsStream("application.properties"));
+
+        AmazonDynamoDB client = AmazonDynamoDBClientBuilder.standard().withRegion("us-east-1")
+                .build();
+        WordCounterTable counters = MultiThreadedConsumer.createCounterTable(properties, client);
+        WordCountCompaction compaction = new WordCountCompaction(client,
+                properties.getProperty("item_table", "wordsCount"), counters);
+
+        long start = System.currentTimeMillis();
+        long items = compaction.run(segments);
+        counters.close();
+        System.out.println(String.format("compacted %d items in %d ms", items, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Compact the whole item table.
+     * @param segments the number of scan segments compacted in parallel
+     * @return the number of items compacted
+     */
+    public long run(int segments) throws Exception {
+        ExecutorService scanners = Executors.newFixedThreadPool(segments);
+        try {
+            List<Future<?>> futures = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                int segment = i;
+                futures.add(scanners.submit(() -> {
+                    compact(segment, segments);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            scanners.shutdown();
+        }
+        return compacted.get();
+    }
+
+    private void compact(int segment, int segments) throws Exception {
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanResult page = client.scan(new ScanRequest()
+                    .withTableName(itemTable)
+                    .withSegment(segment)
+                    .withTotalSegments(segments)
+                    .withProjectionExpression("#id, #w, #c")
+                    .withExpressionAttributeNames(names())
+                    .withExclusiveStartKey(startKey));
+            HashMap<String, Integer> sums = new HashMap<>();
+            List<WriteRequest> deletes = new ArrayList<>(page.getCount());
+            for (Map<String, AttributeValue> item : page.getItems()) {
+                if (item.containsKey(WordCounterTable.WORD) && item.containsKey(WordCounterTable.COUNT)) {
+                    sums.merge(item.get(WordCounterTable.WORD).getS(),
+                            Integer.parseInt(item.get(WordCounterTable.COUNT).getN()), Integer::sum);
+                }
+                deletes.add(new WriteRequest(new DeleteRequest(Collections.singletonMap(ID, item.get(ID)))));
+            }
+            // the counters are added before the items are deleted, so a failure never loses a count
+            counters.add(sums);
+            delete(deletes);
+            compacted.addAndGet(deletes.size());
+            startKey = page.getLastEvaluatedKey();
+        } while (startKey != null);
+    }
+
+    private void delete(List<WriteRequest> deletes) throws InterruptedException {
+        for (int from = 0; from < deletes.size(); from += MAX_BATCH) {
+            List<WriteRequest> batch = deletes.subList(from, Math.min(from + MAX_BATCH, deletes.size()));
+            Map<String, List<WriteRequest>> request = Collections.singletonMap(itemTable, batch);
+            for (int attempt = 1; !request.isEmpty(); attempt++) {
+                BatchWriteItemResult result = client.batchWriteItem(request);
+                request = result.getUnprocessedItems();
+                if (!request.isEmpty()) {
+                    Thread.sleep(WordCounterTable.backoff(attempt));
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> names() {
+        Map<String, String> names = new HashMap<>();
+        names.put("#id", ID);
+        names.put("#w", WordCounterTable.WORD);
+        names.put("#c", WordCounterTable.COUNT);
+        return names;
+    }
+}
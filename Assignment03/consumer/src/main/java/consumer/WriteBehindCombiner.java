@@ -0,0 +1,258 @@
+package consumer;
+
+import com.rabbitmq.client.Channel;
+import model.WordDictionary;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A write-behind buffer of a handler, which merges the word-count of the deliveries of its channel in memory, so a
+ * word frequent in every message is written once per flush instead of once per message. The merged deltas are
+ * flushed to a {@link Sink} once a number of distinct words is reached, once any channel has an ack window of
+ * deliveries in the buffer, or on a timer, and the deliveries covered by a flush are acknowledged per channel with
+ * a single multiple ack only once the flush is stored. The window is counted per channel, as the prefetch of a
+ * channel bounds its own unacknowledged deliveries, so a few busy channels fill their windows whatever the others
+ * do. A failed flush requeues its deliveries, so every message is stored at least once.
+ * A flush only swaps the buffer, it is stored on a pool of its own so the handlers never wait for a slow store,
+ * and the acks of the flushes are sent in the order of the flushes, whatever order they are stored in.
+ * Every handler has a combiner of its own, aggregating the partitions it owns, so a buffer is only shared with
+ * its flush timer and its lock is uncontended; the combiners share the timer thread and the store pool.
+ * The word ids of the deliveries are summed as ints, and resolved to words by one dictionary lookup per flush
+ * on the store pool, so a delivery never waits for the dictionary.
+ * It is a thread-safe class.
+ */
+public class WriteBehindCombiner {
+
+    /**
+     * The store the merged word-count is flushed to.
+     */
+    public interface Sink {
+        /**
+         * Add a word-count to the stored counts of the words.
+         * @param wordCount the merged word-count
+         * @throws Exception if the word-count is not stored
+         */
+        void store(Map<String, Integer> wordCount) throws Exception;
+    }
+
+    private final Sink sink;
+    private final WordDictionary dictionary;
+    private final int maxWords;
+    // the number of deliveries of a channel from which the buffer is flushed
+    private final int ackWindow;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService storer;
+    // true if the timer and the pool are not shared with other combiners
+    private final boolean ownExecutors;
+    private final ScheduledFuture<?> timer;
+    // serializes the flushes, so the acks of a channel are sent in the order of its deliveries
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // guarded by flushLock, completed once the acks of the last flush are sent
+    private CompletableFuture<Void> acked = CompletableFuture.completedFuture(null);
+
+    // guarded by this, the buffer being filled
+    private HashMap<String, Integer> pending = new HashMap<>();
+    private IntCountMap pendingIds = new IntCountMap();
+    // the last delivery tag of every channel in the buffer
+    private HashMap<Channel, Long> lastTags = new HashMap<>();
+    // the number of deliveries of every channel in the buffer
+    private HashMap<Channel, Integer> pendingDeliveries = new HashMap<>();
+
+    /**
+     * Create a combiner with a flush timer and a store thread of its own, and start its timer.
+     * @param sink the store of the merged word-count
+     * @param dictionary the shared dictionary resolving the word ids of the deliveries
+     * @param maxWords the number of distinct words from which the buffer is flushed
+     * @param ackWindow the number of deliveries of a channel from which the buffer is flushed, at most its prefetch
+     * @param flushIntervalMillis the max time a delivery waits to be flushed
+     */
+    public WriteBehindCombiner(Sink sink, WordDictionary dictionary, int maxWords, int ackWindow,
+                               long flushIntervalMillis) {
+        this(sink, dictionary, maxWords, ackWindow, flushIntervalMillis, newFlusher(), newStorer(1), true);
+    }
+
+    /**
+     * Create a combiner sharing its flush timer and its store pool with other combiners, and start its timer.
+     * @param sink the store of the merged word-count
+     * @param dictionary the shared dictionary resolving the word ids of the deliveries
+     * @param maxWords the number of distinct words from which the buffer is flushed
+     * @param ackWindow the number of deliveries of a channel from which the buffer is flushed, at most its prefetch
+     * @param flushIntervalMillis the max time a delivery waits to be flushed
+     * @param flusher the timer thread of the flushes, which only swaps the buffers
+     * @param storer the pool storing the flushes
+     */
+    public WriteBehindCombiner(Sink sink, WordDictionary dictionary, int maxWords, int ackWindow,
+                               long flushIntervalMillis, ScheduledExecutorService flusher, ExecutorService storer) {
+        this(sink, dictionary, maxWords, ackWindow, flushIntervalMillis, flusher, storer, false);
+    }
+
+    private WriteBehindCombiner(Sink sink, WordDictionary dictionary, int maxWords, int ackWindow,
+                                long flushIntervalMillis, ScheduledExecutorService flusher, ExecutorService storer,
+                                boolean ownExecutors) {
+        this.sink = sink;
+        this.dictionary = dictionary;
+        this.maxWords = maxWords;
+        this.ackWindow = ackWindow;
+        this.flusher = flusher;
+        this.storer = storer;
+        this.ownExecutors = ownExecutors;
+        this.timer = flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a daemon timer thread, which may run the flush timers of several combiners.
+     * @return the timer
+     */
+    public static ScheduledExecutorService newFlusher() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create a daemon pool storing the flushes, which may be shared by several combiners.
+     * @param storeThreads the max number of flushes stored at once
+     * @return the pool
+     */
+    public static ExecutorService newStorer(int storeThreads) {
+        return Executors.newFixedThreadPool(storeThreads, r -> {
+            Thread thread = new Thread(r, "write-behind-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Merge a delivery into the buffer, and flush it once it is full. The delivery is acknowledged by the flush
+     * storing it.
+     * @param channel the channel of the delivery
+     * @param deliveryTag the delivery tag
+     * @param wordCount the word-count of the inline words of the delivery
+     * @param ids the counts of the word ids of the delivery
+     */
+    public void add(Channel channel, long deliveryTag, Map<String, Integer> wordCount, IntCountMap ids) {
+        boolean full;
+        synchronized (this) {
+            for (Map.Entry<String, Integer> entry : wordCount.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            pendingIds.addAll(ids);
+            lastTags.put(channel, deliveryTag);
+            full = pendingDeliveries.merge(channel, 1, Integer::sum) >= ackWindow
+                    || pending.size() + pendingIds.size() >= maxWords;
+        }
+        if (full && flushLock.tryLock()) {
+            try {
+                flushLocked();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Start storing the buffer, its deliveries are acknowledged once it is stored.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the timer, and store what is left.
+     */
+    public void close() {
+        timer.cancel(false);
+        if (ownExecutors) {
+            flusher.shutdown();
+        }
+        flush();
+        CompletableFuture<Void> last;
+        flushLock.lock();
+        try {
+            last = acked;
+        } finally {
+            flushLock.unlock();
+        }
+        last.join();
+        if (ownExecutors) {
+            storer.shutdown();
+        }
+    }
+
+    private void flushLocked() {
+        HashMap<String, Integer> merged;
+        IntCountMap ids;
+        HashMap<Channel, Long> tags;
+        synchronized (this) {
+            if (lastTags.isEmpty()) {
+                return;
+            }
+            merged = pending;
+            ids = pendingIds;
+            tags = lastTags;
+            pending = new HashMap<>(merged.size() * 2);
+            pendingIds = new IntCountMap(ids.size());
+            lastTags = new HashMap<>();
+            pendingDeliveries = new HashMap<>();
+        }
+        CompletableFuture<Boolean> stored = CompletableFuture.supplyAsync(() -> {
+            try {
+                resolve(ids, merged);
+                sink.store(merged);
+                return true;
+            } catch (Exception e) {
+                System.err.println("fail to store the word count of " + tags.size() + " channels");
+                return false;
+            }
+        }, storer);
+        // the acks wait for those of the previous flush
+        acked = acked.thenCombine(stored, (previous, success) -> {
+            acknowledge(tags, success);
+            return null;
+        });
+    }
+
+    private void resolve(IntCountMap ids, Map<String, Integer> merged) throws InterruptedException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        // an id is put in the dictionary before it is handed out, so only a corrupt message has an unknown one
+        int unknown = dictionary == null ? ids.size() : ids.resolve(dictionary, merged);
+        if (unknown > 0) {
+            System.err.println("drop the count of " + unknown + " unknown word ids");
+        }
+    }
+
+    private static void acknowledge(Map<Channel, Long> tags, boolean stored) {
+        for (Map.Entry<Channel, Long> entry : tags.entrySet()) {
+            try {
+                if (stored) {
+                    // acknowledge every delivery of the channel up to the last one
+                    entry.getKey().basicAck(entry.getValue(), true);
+                } else {
+                    entry.getKey().basicNack(entry.getValue(), true, true);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the channel is closed, the broker requeues the deliveries itself, and the next acks are still sent
+                System.err.println("fail to acknowledge the deliveries");
+            }
+        }
+    }
+}
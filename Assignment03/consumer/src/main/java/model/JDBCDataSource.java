@@ -40,6 +40,8 @@ public class JDBCDataSource {
         config.addDataSourceProperty( "cachePrepStmts" , "true" );
         config.addDataSourceProperty( "prepStmtCacheSize" , "250" );
         config.addDataSourceProperty( "prepStmtCacheSqlLimit" , "2048" );
+        // send a batch as multi-row statements instead of one statement per row
+        config.addDataSourceProperty( "rewriteBatchedStatements" , "true" );
         this.ds = new HikariDataSource(config);
         ds.setMaximumPoolSize(60);
     }
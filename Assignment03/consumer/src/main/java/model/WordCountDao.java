@@ -0,0 +1,89 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes the word-count to the MySQL table wordsCount, which keeps one row per word:
+ * <pre>
+ * CREATE TABLE wordsCount (word VARCHAR(255) NOT NULL PRIMARY KEY, count BIGINT NOT NULL)
+ * </pre>
+ * A word-count is upserted by a single JDBC batch in one transaction, which the driver rewrites into
+ * multi-row statements, so it takes one round trip instead of one per word. Without a unique key on word an upsert
+ * only appends rows, so a table of the former layout, one row per word and message, is migrated first by the
+ * script sql/wordsCount_unique_word.sql, and {@link #checkSchema()} refuses to start on a table without the key.
+ */
+public class WordCountDao {
+
+    private static final String UPSERT = "INSERT INTO wordsCount (word, count) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE count = count + VALUES(count)";
+
+    // the unique indexes made of the single column word
+    private static final String UNIQUE_WORD = "SELECT INDEX_NAME FROM information_schema.STATISTICS "
+            + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'wordsCount' AND NON_UNIQUE = 0 "
+            + "GROUP BY INDEX_NAME HAVING COUNT(*) = 1 AND MAX(COLUMN_NAME) = 'word'";
+
+    private final JDBCDataSource dataSource;
+
+    /**
+     * Create a dao over a data source.
+     * @param dataSource the data source, which must rewrite batched statements
+     */
+    public WordCountDao(JDBCDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Check that the table has a unique key on word, which the upserts rely on to keep one row per word.
+     * @throws IllegalStateException if the table has no such key, and is to be migrated
+     * @throws SQLException if the schema can not be read
+     */
+    public void checkSchema() throws SQLException {
+        try (Connection conn = dataSource.getConnetion();
+             PreparedStatement statement = conn.prepareStatement(UNIQUE_WORD);
+             ResultSet indexes = statement.executeQuery()) {
+            if (!indexes.next()) {
+                throw new IllegalStateException("the table wordsCount has no unique key on word, "
+                        + "migrate it with sql/wordsCount_unique_word.sql first");
+            }
+        }
+    }
+
+    /**
+     * Add a word-count to the counts of the words.
+     * @param wordCount the word-count
+     * @throws SQLException if the word-count is not stored, none of it is
+     */
+    public void upsert(Map<String, Integer> wordCount) throws SQLException {
+        // the rows are locked in the same order by every writer so concurrent upserts can not deadlock
+        List<String> words = new ArrayList<>(wordCount.keySet());
+        Collections.sort(words);
+
+        try (Connection conn = dataSource.getConnetion()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = conn.prepareStatement(UPSERT)) {
+                for (String word : words) {
+                    if (word.isEmpty()) {
+                        continue;
+                    }
+                    preparedStatement.setString(1, word);
+                    preparedStatement.setInt(2, wordCount.get(word));
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+}
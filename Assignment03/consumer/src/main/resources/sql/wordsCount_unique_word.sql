@@ -0,0 +1,15 @@
+-- Migrate the MySQL table wordsCount from one row per word and message to one row per word, as the upserts of
+-- WordCountDao need a unique key on word. The consumers must be stopped while it runs, as the rows inserted
+-- between the copy and the swap would be left in the old table. The old table is kept as wordsCount_old until
+-- the counts are checked, then it is dropped by hand.
+
+CREATE TABLE wordsCount_new (
+    word VARCHAR(255) NOT NULL PRIMARY KEY,
+    count BIGINT NOT NULL
+);
+
+INSERT INTO wordsCount_new (word, count)
+SELECT word, SUM(count) FROM wordsCount WHERE word <> '' GROUP BY word;
+
+-- the swap is atomic, readers see either table
+RENAME TABLE wordsCount TO wordsCount_old, wordsCount_new TO wordsCount;
@@ -0,0 +1,103 @@
+package consumer;
+
+import model.WordDictionary;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The open addressed id counts, checked against a HashMap across table growth, merged with addAll and resolved
+ * through a dictionary which does not know every id.
+ */
+public class IntCountMapTest {
+
+    @Test
+    public void sumsTheCountsOfAnId() throws InterruptedException {
+        IntCountMap map = new IntCountMap();
+        assertTrue(map.isEmpty());
+        map.add(0, 2);
+        map.add(7, 1);
+        map.add(0, 3);
+        assertEquals(2, map.size());
+
+        Map<String, Integer> words = new HashMap<>();
+        assertEquals(0, map.resolve(new MapDictionary(), words));
+        assertEquals(Integer.valueOf(5), words.get("w0"));
+        assertEquals(Integer.valueOf(1), words.get("w7"));
+    }
+
+    @Test
+    public void matchesAHashMapAcrossGrowth() throws InterruptedException {
+        IntCountMap map = new IntCountMap(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 50000; i++) {
+            // dense sequential ids as the dictionary hands them out
+            int id = random.nextInt(10000);
+            map.add(id, 1);
+            expected.merge(id, 1, Integer::sum);
+        }
+        assertEquals(expected.size(), map.size());
+
+        Map<String, Integer> words = new HashMap<>();
+        map.resolve(new MapDictionary(), words);
+        assertEquals(expected.size(), words.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), words.get("w" + entry.getKey()));
+        }
+    }
+
+    @Test
+    public void addAllMergesAnotherMap() throws InterruptedException {
+        IntCountMap first = new IntCountMap();
+        IntCountMap second = new IntCountMap();
+        first.add(1, 1);
+        second.add(1, 2);
+        second.add(2, 4);
+        first.addAll(second);
+
+        Map<String, Integer> words = new HashMap<>();
+        first.resolve(new MapDictionary(), words);
+        assertEquals(Integer.valueOf(3), words.get("w1"));
+        assertEquals(Integer.valueOf(4), words.get("w2"));
+    }
+
+    @Test
+    public void leavesOutTheUnknownIds() throws InterruptedException {
+        IntCountMap map = new IntCountMap();
+        map.add(1, 1);
+        map.add(MapDictionary.UNKNOWN, 9);
+
+        Map<String, Integer> words = new HashMap<>();
+        words.put("w1", 10);
+        assertEquals(1, map.resolve(new MapDictionary(), words));
+        assertEquals(1, words.size());
+        assertEquals(Integer.valueOf(11), words.get("w1"));
+    }
+
+    /**
+     * A dictionary naming the id i "wi", except for the unknown id.
+     */
+    private static class MapDictionary extends WordDictionary {
+
+        private static final int UNKNOWN = 999999;
+
+        private MapDictionary() {
+            super(null, "test", 16, 1);
+        }
+
+        @Override
+        public String[] wordsOf(int[] ids) {
+            String[] words = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                words[i] = ids[i] == UNKNOWN ? null : "w" + ids[i];
+            }
+            return words;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package consumer;
+
+import com.rabbitmq.client.Channel;
+import model.WordDictionary;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The write-behind buffer: the deliveries are merged and acknowledged per channel with one multiple ack of their
+ * last tag only once their flush is stored, a failed flush requeues them, the buffer is flushed on the ack window
+ * and on the number of words, and the acks of the flushes are sent in the order of the flushes.
+ */
+public class WriteBehindCombinerTest {
+
+    // a timer never firing during a test, the flushes are triggered by the test
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    // the acks and nacks sent on every channel, as "ack <channel> <tag>" or "nack <channel> <tag>"
+    private final List<String> acks = Collections.synchronizedList(new ArrayList<>());
+    private final List<Map<String, Integer>> stored = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void acksTheLastTagOfEveryChannelOnceStored() throws Exception {
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> {
+            storing.countDown();
+            release.await();
+            stored.add(new HashMap<>(wordCount));
+        }, null, 1000, 1000, NEVER);
+        Channel a = channel("a");
+        Channel b = channel("b");
+        combiner.add(a, 1, map("x", 1), new IntCountMap());
+        combiner.add(b, 1, map("x", 2, "y", 1), new IntCountMap());
+        combiner.add(a, 2, map("y", 3), new IntCountMap());
+        combiner.add(a, 3, map("x", 1), new IntCountMap());
+        combiner.add(b, 2, map("z", 1), new IntCountMap());
+
+        combiner.flush();
+        assertTrue(storing.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertTrue("acked before the flush is stored", acks.isEmpty());
+        release.countDown();
+        combiner.close();
+
+        assertEquals(1, stored.size());
+        assertEquals(map("x", 4, "y", 4, "z", 1), stored.get(0));
+        assertEquals(2, acks.size());
+        assertTrue(acks.contains("ack a 3"));
+        assertTrue(acks.contains("ack b 2"));
+    }
+
+    @Test
+    public void requeuesTheDeliveriesOfAFailedFlush() {
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> {
+            throw new IllegalStateException("the table is down");
+        }, null, 1000, 1000, NEVER);
+        Channel a = channel("a");
+        combiner.add(a, 4, map("x", 1), new IntCountMap());
+        combiner.add(a, 5, map("x", 1), new IntCountMap());
+        combiner.close();
+
+        assertEquals(Collections.singletonList("nack a 5"), acks);
+    }
+
+    @Test
+    public void flushesOnTheAckWindowOfAChannel() throws Exception {
+        CountDownLatch flushed = new CountDownLatch(1);
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> {
+            stored.add(new HashMap<>(wordCount));
+            flushed.countDown();
+        }, null, 1000, 3, NEVER);
+        Channel a = channel("a");
+        Channel b = channel("b");
+        // the window is counted per channel, so the deliveries of b do not fill the window of a
+        combiner.add(a, 1, map("x", 1), new IntCountMap());
+        combiner.add(b, 1, map("x", 1), new IntCountMap());
+        combiner.add(a, 2, map("x", 1), new IntCountMap());
+        combiner.add(b, 2, map("x", 1), new IntCountMap());
+        assertEquals(1, flushed.getCount());
+        combiner.add(a, 3, map("x", 1), new IntCountMap());
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        combiner.close();
+        assertEquals(map("x", 5), stored.get(0));
+        assertTrue(acks.contains("ack a 3"));
+        assertTrue(acks.contains("ack b 2"));
+    }
+
+    @Test
+    public void flushesOnTheNumberOfWords() throws Exception {
+        CountDownLatch flushed = new CountDownLatch(1);
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> {
+            stored.add(new HashMap<>(wordCount));
+            flushed.countDown();
+        }, null, 3, 1000, NEVER);
+        Channel a = channel("a");
+        combiner.add(a, 1, map("x", 1, "y", 1), new IntCountMap());
+        assertEquals(1, flushed.getCount());
+        IntCountMap ids = new IntCountMap();
+        ids.add(7, 1);
+        combiner.add(a, 2, map("x", 1), ids);
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        combiner.close();
+        assertEquals(Collections.singletonList("ack a 2"), acks);
+    }
+
+    @Test
+    public void resolvesTheWordIdsOnFlush() {
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> stored.add(new HashMap<>(wordCount)),
+                new MapDictionary(), 1000, 1000, NEVER);
+        Channel a = channel("a");
+        IntCountMap ids = new IntCountMap();
+        ids.add(1, 2);
+        ids.add(MapDictionary.UNKNOWN, 5);
+        combiner.add(a, 1, map("w1", 1, "x", 1), ids);
+        IntCountMap more = new IntCountMap();
+        more.add(2, 3);
+        combiner.add(a, 2, map("x", 1), more);
+        combiner.close();
+
+        // the count of the unknown id is dropped
+        assertEquals(map("w1", 3, "w2", 3, "x", 2), stored.get(0));
+        assertEquals(Collections.singletonList("ack a 2"), acks);
+    }
+
+    @Test
+    public void acksTheFlushesInTheirOrder() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ScheduledExecutorService flusher = WriteBehindCombiner.newFlusher();
+        ExecutorService storer = WriteBehindCombiner.newStorer(2);
+        WriteBehindCombiner combiner = new WriteBehindCombiner(wordCount -> {
+            // the first flush is stored after the second one
+            if (wordCount.containsKey("first")) {
+                release.await();
+            }
+            stored.add(new HashMap<>(wordCount));
+        }, null, 1000, 1000, NEVER, flusher, storer);
+        Channel a = channel("a");
+        combiner.add(a, 1, map("first", 1), new IntCountMap());
+        combiner.flush();
+        combiner.add(a, 2, map("second", 1), new IntCountMap());
+        combiner.flush();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stored.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(map("second", 1), stored.get(0));
+        Thread.sleep(50);
+        assertTrue("the second flush is acked before the first", acks.isEmpty());
+        release.countDown();
+        combiner.close();
+        flusher.shutdown();
+        storer.shutdown();
+
+        assertEquals(Arrays.asList("ack a 1", "ack a 2"), acks);
+    }
+
+    /**
+     * Create a channel recording its acks and nacks, which is used as a key of the buffer so it keeps the identity
+     * equality of a channel.
+     */
+    private Channel channel(String name) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "basicAck":
+                            acks.add("ack " + name + " " + args[0]);
+                            return null;
+                        case "basicNack":
+                            acks.add("nack " + name + " " + args[0]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return name;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static Map<String, Integer> map(Object... wordsAndCounts) {
+        Map<String, Integer> wordCount = new HashMap<>();
+        for (int i = 0; i < wordsAndCounts.length; i += 2) {
+            wordCount.put((String) wordsAndCounts[i], (Integer) wordsAndCounts[i + 1]);
+        }
+        return wordCount;
+    }
+
+    /**
+     * A dictionary naming the id i "wi", except for the unknown id.
+     */
+    private static class MapDictionary extends WordDictionary {
+
+        private static final int UNKNOWN = 999999;
+
+        private MapDictionary() {
+            super(null, "test", 16, 1);
+        }
+
+        @Override
+        public String[] wordsOf(int[] ids) {
+            String[] words = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                words[i] = ids[i] == UNKNOWN ? null : "w" + ids[i];
+            }
+            return words;
+        }
+    }
+}